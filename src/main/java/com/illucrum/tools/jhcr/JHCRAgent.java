@@ -19,9 +19,13 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.logging.Level;
 
+import com.illucrum.tools.jhcr.cache.JHCRClassListRecorder;
 import com.illucrum.tools.jhcr.loader.JHCRClassLoader;
+import com.illucrum.tools.jhcr.loader.JHCRURLClassLoader;
 import com.illucrum.tools.jhcr.logger.JHCRFormatter;
 import com.illucrum.tools.jhcr.logger.JHCRLogger;
+import com.illucrum.tools.jhcr.metrics.JHCREvents;
+import com.illucrum.tools.jhcr.metrics.JHCRMetrics;
 
 /**
  * Agent for JHCR.
@@ -107,8 +111,19 @@ public class JHCRAgent
                 return;
             }
 
+            JHCRMetrics.register();
+            JHCREvents.register();
+            JHCRClassListRecorder.register();
+
             instrumentation.addTransformer(new JHCRTransformer());
 
+            JHCRURLClassLoader urlLoader = ((JHCRClassLoader) loader).getURLClassLoader();
+
+            if (urlLoader != null)
+            {
+                urlLoader.buildIndex();
+            }
+
             Thread jhcr = new JHCRThread();
             jhcr.setDaemon(false);
             jhcr.start();
@@ -14,15 +14,19 @@
 package com.illucrum.tools.jhcr;
 
 import java.io.File;
+import java.nio.file.Path;
 import java.lang.instrument.Instrumentation;
 
-import org.apache.commons.io.monitor.FileAlterationListener;
 import org.apache.commons.io.monitor.FileAlterationMonitor;
 import org.apache.commons.io.monitor.FileAlterationObserver;
 
+import com.illucrum.tools.jhcr.loader.JHCRClassLoader;
+import com.illucrum.tools.jhcr.loader.JHCRURLClassLoader;
 import com.illucrum.tools.jhcr.logger.JHCRLogger;
 import com.illucrum.tools.jhcr.vars.JHCRVariables;
+import com.illucrum.tools.jhcr.watcher.JHCRJarWatcher;
 import com.illucrum.tools.jhcr.watcher.JHCRListener;
+import com.illucrum.tools.jhcr.watcher.JHCRWatcher;
 
 /**
  * JHCRThread is a thread started from {@link com.illucrum.tools.jhcr.JHCRAgent#premain(String, Instrumentation)}. Around this thread, resolves all JHCR.
@@ -33,6 +37,9 @@ import com.illucrum.tools.jhcr.watcher.JHCRListener;
  */
 public class JHCRThread extends Thread implements JHCRVariables
 {
+    private static final String WATCH_MODE = "watch";
+    private static final String POLL_MODE = "poll";
+
     /**
      * Constructs a new {@link com.illucrum.tools.jhcr.JHCRThread}.
      */
@@ -47,14 +54,18 @@ public class JHCRThread extends Thread implements JHCRVariables
      * This method:
      * <ol>
      * <li>Reads the directory path from preferences. If it can't, it tries the user.dir system property.</li>
-     * <li>Creates the observer if the path is valid.</li>
      * <li>Creates the listener by means of the {@link com.illucrum.tools.jhcr.watcher.JHCRListener} class.</li>
+     * <li>Unless <code>jhcr.watcher.mode</code> is <code>poll</code>, watches the directory tree with a {@link com.illucrum.tools.jhcr.watcher.JHCRWatcher}
+     * for as long as the thread runs. In the default <code>auto</code> mode, only if the operating system notifies file changes.</li>
+     * <li>Otherwise creates the observer if the path is valid.</li>
+     * <li>With <code>jhcr.watcher.jars=true</code>, also watches the jars of the class path, see {@link com.illucrum.tools.jhcr.watcher.JHCRJarWatcher}.</li>
      * <li>Creates the monitor with an interval of 1sec by default or the time specified in the preferences.</li>
      * <li>It starts the monitor</li>
      * </ol>
      * </p>
      * 
      * @see com.illucrum.tools.jhcr.watcher.JHCRListener
+     * @see com.illucrum.tools.jhcr.watcher.JHCRWatcher
      */
     @Override
     public void run ()
@@ -62,19 +73,27 @@ public class JHCRThread extends Thread implements JHCRVariables
         JHCRLogger.info("Execution started.");
 
         String pathString = JHCRAgent.preferences.getOrDefault("jhcr.projectDirectory", System.getProperty("user.dir"));
-        File watchDir;
-        FileAlterationObserver observer;
+        File watchDir = new File(pathString);
 
-        try
+        if (!watchDir.exists() || !watchDir.isDirectory())
         {
-            watchDir = new File(pathString);
+            JHCRLogger.severe("Specified path is invalid: " + pathString);
+            return;
+        }
 
-            if (!watchDir.exists() || !watchDir.isDirectory())
-            {
-                JHCRLogger.severe("Specified path is invalid: " + pathString);
-                return;
-            }
+        JHCRJarWatcher jars = getJarWatcher();
+        JHCRListener listener = new JHCRListener(FILE_EXTENSION, jars);
+        String mode = JHCRAgent.preferences.getOrDefault("jhcr.watcher.mode", "auto");
+
+        if (!POLL_MODE.equals(mode) && this.watch(watchDir, listener, jars, WATCH_MODE.equals(mode)))
+        {
+            return;
+        }
+
+        FileAlterationObserver observer;
 
+        try
+        {
             observer = FileAlterationObserver.builder().setFile(watchDir).get();
         }
         catch (Exception e)
@@ -84,11 +103,29 @@ public class JHCRThread extends Thread implements JHCRVariables
             return;
         }
 
-        FileAlterationListener listener = new JHCRListener(FILE_EXTENSION);
         observer.addListener(listener);
 
         FileAlterationMonitor monitor = new FileAlterationMonitor(getInterval());
         monitor.addObserver(observer);
+
+        if (jars != null)
+        {
+            // Only the watched jars are checked, subdirectories are filtered out as well.
+            for (Path directory : jars.getDirectories())
+            {
+                try
+                {
+                    FileAlterationObserver jarObserver = FileAlterationObserver.builder().setFile(directory.toFile()).setFileFilter(jars::isTracked).get();
+                    jarObserver.addListener(listener);
+                    monitor.addObserver(jarObserver);
+                }
+                catch (Exception e)
+                {
+                    e.printStackTrace();
+                    JHCRLogger.warning("Could not watch the jars in: " + directory);
+                }
+            }
+        }
         try
         {
             monitor.start();
@@ -101,6 +138,69 @@ public class JHCRThread extends Thread implements JHCRVariables
         }
     }
 
+    /**
+     * Watches the directory tree until the thread ends.
+     * 
+     * @return false if the tree can't be watched, or if the watch service isn't native and not forced, so the polling monitor should be used
+     */
+    private boolean watch (File watchDir, JHCRListener listener, JHCRJarWatcher jars, boolean forced)
+    {
+        JHCRWatcher watcher = null;
+
+        try
+        {
+            watcher = new JHCRWatcher(watchDir.toPath(), listener, listener::isWatched);
+
+            if (!forced && !watcher.isNative())
+            {
+                JHCRLogger.fine("No native file change notifications, using the polling monitor.");
+                watcher.close();
+                return false;
+            }
+
+            watcher.register();
+
+            if (jars != null)
+            {
+                for (Path directory : jars.getDirectories())
+                {
+                    watcher.registerDirectory(directory);
+                }
+            }
+        }
+        catch (Exception e)
+        {
+            JHCRLogger.warning("Could not watch " + watchDir + ", using the polling monitor: " + e);
+
+            if (watcher != null)
+            {
+                watcher.close();
+            }
+
+            return false;
+        }
+
+        JHCRLogger.info("Watching started: " + watchDir);
+        watcher.run();
+
+        return true;
+    }
+
+    /**
+     * @return the watcher of the class path jars, or null if <code>jhcr.watcher.jars</code> isn't <code>true</code>
+     */
+    private static JHCRJarWatcher getJarWatcher ()
+    {
+        if (!"true".equals(JHCRAgent.preferences.get("jhcr.watcher.jars")))
+        {
+            return null;
+        }
+
+        JHCRURLClassLoader loader = ((JHCRClassLoader) ClassLoader.getSystemClassLoader()).getURLClassLoader();
+
+        return loader == null ? null : new JHCRJarWatcher(loader.getURLs());
+    }
+
     private long getInterval ()
     {
         long interval;
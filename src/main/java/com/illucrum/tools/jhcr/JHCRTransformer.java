@@ -16,14 +16,25 @@ package com.illucrum.tools.jhcr;
 import java.lang.instrument.ClassFileTransformer;
 import java.lang.instrument.IllegalClassFormatException;
 import java.security.ProtectionDomain;
+import java.util.Set;
 
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.ClassWriter;
 
+import com.illucrum.tools.jhcr.cache.JHCRClassListRecorder;
+import com.illucrum.tools.jhcr.cache.JHCRTransformCache;
 import com.illucrum.tools.jhcr.loader.JHCRCustomLoader;
 import com.illucrum.tools.jhcr.logger.JHCRLogger;
+import com.illucrum.tools.jhcr.metrics.JHCREvents;
+import com.illucrum.tools.jhcr.metrics.JHCRMetrics;
+import com.illucrum.tools.jhcr.repo.JHCRDigestRepository;
+import com.illucrum.tools.jhcr.repo.JHCRHierarchyRepository;
+import com.illucrum.tools.jhcr.repo.JHCRShapeRepository;
+import com.illucrum.tools.jhcr.writer.JHCRClassScanner;
+import com.illucrum.tools.jhcr.writer.JHCRClassShape;
 import com.illucrum.tools.jhcr.writer.JHCRClassVisitor;
+import com.illucrum.tools.jhcr.writer.JHCRClassWriter;
 
 /**
  * Transformer for JHCR. It triggers bytecode manipulation, for classes loaded by {@link com.illucrum.tools.jhcr.loader.JHCRURLClassLoader}.
@@ -34,6 +45,8 @@ import com.illucrum.tools.jhcr.writer.JHCRClassVisitor;
  */
 public class JHCRTransformer implements ClassFileTransformer
 {
+    private final String suffix = JHCRAgent.preferences.get("jhcr.suffix");
+
     @Override
     public byte[] transform (ClassLoader loader, String className, Class<?> classBeingRedefined, ProtectionDomain protectionDomain, byte[] classfileBuffer)
             throws IllegalClassFormatException
@@ -41,16 +54,79 @@ public class JHCRTransformer implements ClassFileTransformer
         if (loader instanceof JHCRCustomLoader)
         {
             JHCRLogger.finer("Transforming: " + className);
+            long start = System.nanoTime();
+            Object event = JHCREvents.beginTransform();
 
             try
             {
                 ClassReader classReader = new ClassReader(classfileBuffer);
-                ClassWriter classWriter = new ClassWriter(ClassWriter.COMPUTE_FRAMES);
-                ClassVisitor classVisitor = new JHCRClassVisitor(classWriter);
+
+                // Reloads compare against the class file first loaded, later ones are recorded by the overrider.
+                if (classBeingRedefined == null && !className.contains(this.suffix) && JHCRDigestRepository.isReloadable(loader, protectionDomain))
+                {
+                    JHCRDigestRepository.put(className, JHCRDigestRepository.digest(classfileBuffer));
+                    JHCRShapeRepository.put(className, JHCRClassShape.of(classReader));
+                }
+                Set<String> methods = null;
+
+                if (!JHCRClassScanner.needsTransform(classReader, this.suffix))
+                {
+                    JHCRLogger.finest("Nothing to transform: " + className);
+                    JHCRMetrics.recordSkip();
+                    JHCRClassListRecorder.record(className, classReader.getSuperName(), classReader.getInterfaces(), protectionDomain);
+                    return null;
+                }
+
+                if (!classReader.getClassName().contains(this.suffix) && !JHCRClassScanner.isLoader(classReader))
+                {
+                    methods = JHCRClassScanner.getRewrittenMethods(classReader);
+
+                    if (methods.isEmpty())
+                    {
+                        JHCRLogger.finest("No constructor calls to rewrite: " + className);
+                        JHCRMetrics.recordSkip();
+                        JHCRClassListRecorder.record(className, classReader.getSuperName(), classReader.getInterfaces(), protectionDomain);
+                        return null;
+                    }
+                }
+
+                String cacheKey = null;
+
+                if (JHCRTransformCache.isEnabled())
+                {
+                    cacheKey = JHCRTransformCache.key(classfileBuffer);
+                    byte[] cached = JHCRTransformCache.get(cacheKey);
+
+                    if (cached != null)
+                    {
+                        JHCRLogger.finest("Transformed class found in cache: " + className);
+                        // The class visitor is skipped, the hierarchy of the class is recorded from the cached bytecode.
+                        ClassReader cachedReader = new ClassReader(cached);
+                        JHCRHierarchyRepository.put(loader, className, cachedReader.getAccess(), cachedReader.getSuperName(), cachedReader.getInterfaces());
+                        JHCRMetrics.recordTransform(System.nanoTime() - start);
+                        JHCREvents.commitTransform(event, className, classfileBuffer.length, cached.length);
+                        return cached;
+                    }
+                }
+
+                // Sharing the reader lets ASM copy the constant pool and the untouched methods as they are.
+                JHCRClassWriter classWriter = new JHCRClassWriter(classReader, ClassWriter.COMPUTE_FRAMES, loader);
+                ClassVisitor classVisitor = new JHCRClassVisitor(classWriter, methods, loader);
 
                 classReader.accept(classVisitor, ClassReader.EXPAND_FRAMES);
 
-                return classWriter.toByteArray();
+                byte[] result = classWriter.toByteArray();
+
+                // The key only covers the class itself, frames merging other types would be stale once their hierarchy changes.
+                if (cacheKey != null && !classWriter.usesHierarchy())
+                {
+                    JHCRTransformCache.put(cacheKey, result);
+                }
+
+                JHCRMetrics.recordTransform(System.nanoTime() - start);
+                JHCREvents.commitTransform(event, className, classfileBuffer.length, result.length);
+
+                return result;
             }
             catch (Exception e)
             {
@@ -59,6 +135,7 @@ public class JHCRTransformer implements ClassFileTransformer
             }
         }
 
-        return classfileBuffer;
+        // Returning null tells the JVM the class is unchanged, so it is neither copied nor parsed again, and may come from the shared archive.
+        return null;
     }
 }
@@ -0,0 +1,228 @@
+/*
+ * Copyright (C) 2025, Illucrum LLC
+ *
+ * This file is part of JHCR.
+ *
+ * JHCR is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * JHCR is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with JHCR. If not, see <https://www.gnu.org/licenses/gpl-3.0.html>.
+ */
+package com.illucrum.tools.jhcr.cache;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.CodeSource;
+import java.security.ProtectionDomain;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.illucrum.tools.jhcr.JHCRAgent;
+import com.illucrum.tools.jhcr.logger.JHCRLogger;
+import com.illucrum.tools.jhcr.vars.JHCRVariables;
+
+/**
+ * Records the classes that custom loaders define from jars and that the transformer leaves untouched, and writes them as a class data sharing class list
+ * when the JVM shuts down.
+ * 
+ * <p>
+ * Recording is enabled by the <code>jhcr.cds.classList</code> preference, with the path of the class list. The list uses the format of classes from custom
+ * loaders, with their super class, interfaces and source jar, so it can be passed to <code>-XX:SharedClassListFile</code> when dumping a static archive.
+ * On the next start, those classes come from the archive, and only the others go through the transformer.
+ * </p>
+ * 
+ * @author Szymon Kokot
+ */
+public class JHCRClassListRecorder
+{
+    private static final String JAR_EXTENSION = ".jar";
+
+    private static final ConcurrentHashMap<String, Record> records = new ConcurrentHashMap<>();
+
+    private static volatile boolean enabled = false;
+    private static Path classList;
+
+    private static class Record
+    {
+        final String superName;
+        final String[] interfaces;
+        final String source;
+
+        Record (String superName, String[] interfaces, String source)
+        {
+            this.superName = superName;
+            this.interfaces = interfaces;
+            this.source = source;
+        }
+    }
+
+    /**
+     * Enables recording if the <code>jhcr.cds.classList</code> preference is set, and writes the class list on shutdown.
+     */
+    public static void register ()
+    {
+        String path = JHCRAgent.preferences.get("jhcr.cds.classList");
+
+        if (path == null)
+        {
+            return;
+        }
+
+        classList = Paths.get(path);
+        enabled = true;
+        Runtime.getRuntime().addShutdownHook(new Thread(JHCRClassListRecorder::write, "JHCR class list"));
+        JHCRLogger.info("Recording class list: " + classList);
+    }
+
+    /**
+     * Records a class left untouched by the transformer, if it was read from a jar.
+     * 
+     * @param name
+     *            the internal name of the class
+     * @param superName
+     *            the internal name of the super class
+     * @param interfaces
+     *            the internal names of the interfaces
+     * @param protectionDomain
+     *            the protection domain of the class
+     */
+    public static void record (String name, String superName, String[] interfaces, ProtectionDomain protectionDomain)
+    {
+        if (!enabled || name == null || protectionDomain == null)
+        {
+            return;
+        }
+
+        CodeSource codeSource = protectionDomain.getCodeSource();
+        URL location = codeSource == null ? null : codeSource.getLocation();
+
+        // Only classes from jars can be archived for custom loaders.
+        if (location == null || !JHCRVariables.FILE_PROTOCOL.equals(location.getProtocol()) || !location.getPath().endsWith(JAR_EXTENSION))
+        {
+            return;
+        }
+
+        try
+        {
+            records.put(name, new Record(superName, interfaces, new File(location.toURI()).getAbsolutePath()));
+        }
+        catch (URISyntaxException | IllegalArgumentException e)
+        {
+            JHCRLogger.finer("Not recording " + name + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Writes the class list. Classes are written after their super class and interfaces. Classes whose super class or interfaces were neither recorded nor
+     * belong to the platform are left out, as they can't be archived.
+     */
+    public static void write ()
+    {
+        Map<String, Integer> ids = new HashMap<>();
+        int[] next = new int[1];
+        StringBuilder builder = new StringBuilder();
+
+        for (String name : records.keySet())
+        {
+            getId(name, ids, next, builder);
+        }
+
+        try
+        {
+            if (classList.getParent() != null)
+            {
+                Files.createDirectories(classList.getParent());
+            }
+
+            try (BufferedWriter writer = Files.newBufferedWriter(classList, StandardCharsets.UTF_8))
+            {
+                writer.write(builder.toString());
+            }
+
+            JHCRLogger.info("Class list written: " + classList + " (" + records.size() + " classes recorded)");
+        }
+        catch (IOException e)
+        {
+            JHCRLogger.warning("Could not write class list " + classList + ": " + e.getMessage());
+        }
+    }
+
+    private static int getId (String name, Map<String, Integer> ids, int[] next, StringBuilder builder)
+    {
+        Integer id = ids.get(name);
+
+        if (id != null)
+        {
+            return id;
+        }
+
+        Record record = records.get(name);
+
+        if (record == null)
+        {
+            if (!name.startsWith("java/") && !name.startsWith("jdk/"))
+            {
+                ids.put(name, -1);
+                return -1;
+            }
+
+            // Platform classes are listed without a source, they are loaded by the built-in loaders.
+            id = next[0]++;
+            ids.put(name, id);
+            builder.append(name).append(" id: ").append(id).append('\n');
+
+            return id;
+        }
+
+        // Guards against cycles in broken hierarchies.
+        ids.put(name, -1);
+
+        int superId = record.superName == null ? -1 : getId(record.superName, ids, next, builder);
+        String[] interfaces = record.interfaces == null ? new String[0] : record.interfaces;
+        int[] interfaceIds = new int[interfaces.length];
+
+        for (int i = 0; i < interfaces.length; i++)
+        {
+            interfaceIds[i] = getId(interfaces[i], ids, next, builder);
+
+            if (interfaceIds[i] < 0)
+            {
+                return -1;
+            }
+        }
+
+        if (superId < 0)
+        {
+            return -1;
+        }
+
+        id = next[0]++;
+        ids.put(name, id);
+        builder.append(name).append(" id: ").append(id).append(" super: ").append(superId);
+
+        if (interfaceIds.length > 0)
+        {
+            builder.append(" interfaces:");
+
+            for (int interfaceId : interfaceIds)
+            {
+                builder.append(' ').append(interfaceId);
+            }
+        }
+
+        builder.append(" source: ").append(record.source).append('\n');
+
+        return id;
+    }
+}
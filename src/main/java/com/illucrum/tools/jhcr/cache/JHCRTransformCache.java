@@ -0,0 +1,424 @@
+/*
+ * Copyright (C) 2025, Illucrum LLC
+ *
+ * This file is part of JHCR.
+ *
+ * JHCR is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * JHCR is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with JHCR. If not, see <https://www.gnu.org/licenses/gpl-3.0.html>.
+ */
+package com.illucrum.tools.jhcr.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.illucrum.tools.jhcr.JHCRAgent;
+import com.illucrum.tools.jhcr.logger.JHCRLogger;
+import com.illucrum.tools.jhcr.writer.JHCRTypeFilter;
+
+/**
+ * Persistent cache of the bytecode produced by {@link com.illucrum.tools.jhcr.JHCRTransformer}, so a restart only transforms the classes that changed.
+ * 
+ * <p>
+ * The cache is enabled by the <code>jhcr.cache.directory</code> preference. Entries are addressed by a SHA-1 hash of the original bytecode, the agent
+ * version and the settings that affect the transformation. Entries are written to a temporary file first and then atomically moved in place, so several
+ * JVMs can share the same directory. When the cache grows over <code>jhcr.cache.maxSize</code> megabytes, the least recently used entries are deleted.
+ * </p>
+ * 
+ * <p>
+ * Classes whose stack map frames were computed from the hierarchy of other classes are not cached, as the key doesn't cover those classes.
+ * </p>
+ * 
+ * @author Szymon Kokot
+ */
+public class JHCRTransformCache
+{
+    private static final String EXTENSION = ".class";
+    private static final String TEMP_EXTENSION = ".tmp";
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private static final LongAdder hits = new LongAdder();
+    private static final LongAdder misses = new LongAdder();
+    private static final LongAdder writes = new LongAdder();
+    private static final LongAdder evictions = new LongAdder();
+    private static final AtomicLong size = new AtomicLong();
+
+    private static final ThreadLocal<MessageDigest> digests = new ThreadLocal<MessageDigest>()
+    {
+        @Override
+        protected MessageDigest initialValue ()
+        {
+            try
+            {
+                return MessageDigest.getInstance("SHA-1");
+            }
+            catch (NoSuchAlgorithmException e)
+            {
+                throw new IllegalStateException(e);
+            }
+        }
+    };
+
+    private static volatile boolean initialized = false;
+    private static Path directory;
+    private static long maxSize;
+    private static byte[] settings;
+
+    /**
+     * Checks if the cache is enabled. The first call reads the preferences and prepares the cache directory.
+     * 
+     * @return true if transformed classes should be looked up in the cache
+     */
+    public static boolean isEnabled ()
+    {
+        if (!initialized)
+        {
+            init();
+        }
+
+        return directory != null;
+    }
+
+    /**
+     * Computes the cache key of the given original bytecode.
+     * 
+     * @param classfileBuffer
+     *            the original bytecode
+     * @return the hexadecimal cache key
+     */
+    public static String key (byte[] classfileBuffer)
+    {
+        MessageDigest digest = digests.get();
+        digest.reset();
+        digest.update(settings);
+        byte[] hash = digest.digest(classfileBuffer);
+
+        char[] key = new char[hash.length * 2];
+        for (int i = 0; i < hash.length; i++)
+        {
+            key[i * 2] = HEX[(hash[i] >> 4) & 0xF];
+            key[i * 2 + 1] = HEX[hash[i] & 0xF];
+        }
+
+        return new String(key);
+    }
+
+    /**
+     * Returns the cached transformed bytecode for the given key. May return null.
+     * 
+     * @param key
+     *            the key returned by {@link #key(byte[])}
+     * @return the transformed bytecode or null if none is cached
+     */
+    public static byte[] get (String key)
+    {
+        Path path = getPath(key);
+
+        try
+        {
+            byte[] bytecode = Files.readAllBytes(path);
+
+            if (bytecode.length >= 4 && (bytecode[0] & 0xFF) == 0xCA && (bytecode[1] & 0xFF) == 0xFE && (bytecode[2] & 0xFF) == 0xBA
+                    && (bytecode[3] & 0xFF) == 0xBE)
+            {
+                hits.increment();
+                Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis()));
+                return bytecode;
+            }
+
+            JHCRLogger.fine("Invalid cache entry: " + path);
+        }
+        catch (IOException e)
+        {
+            // Missing entries are the usual case.
+        }
+
+        misses.increment();
+
+        return null;
+    }
+
+    /**
+     * Stores the transformed bytecode under the given key.
+     * 
+     * @param key
+     *            the key returned by {@link #key(byte[])}
+     * @param bytecode
+     *            the transformed bytecode
+     */
+    public static void put (String key, byte[] bytecode)
+    {
+        Path path = getPath(key);
+        Path temp = null;
+
+        try
+        {
+            Files.createDirectories(path.getParent());
+            temp = Files.createTempFile(path.getParent(), key, TEMP_EXTENSION);
+            Files.write(temp, bytecode);
+
+            try
+            {
+                Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE);
+            }
+            catch (AtomicMoveNotSupportedException e)
+            {
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+
+            writes.increment();
+
+            if (size.addAndGet(bytecode.length) > maxSize)
+            {
+                prune();
+            }
+        }
+        catch (IOException e)
+        {
+            JHCRLogger.fine("Could not write cache entry " + path + ": " + e.getMessage());
+
+            try
+            {
+                if (temp != null)
+                {
+                    Files.deleteIfExists(temp);
+                }
+            }
+            catch (IOException ex)
+            {
+            }
+        }
+    }
+
+    /**
+     * Returns a string of the cache statistics.
+     * 
+     * @return the cache statistics.
+     */
+    public static String staticToString ()
+    {
+        return "JHCRTransformCache: directory=" + directory + ", size=" + size.get() + "/" + maxSize + ", hits=" + hits.sum() + ", misses=" + misses.sum()
+                + ", writes=" + writes.sum() + ", evictions=" + evictions.sum();
+    }
+
+    private static synchronized void init ()
+    {
+        if (initialized)
+        {
+            return;
+        }
+
+        String directoryName = JHCRAgent.preferences.get("jhcr.cache.directory");
+
+        if (directoryName != null)
+        {
+            try
+            {
+                Path path = Paths.get(directoryName).toAbsolutePath();
+                Files.createDirectories(path);
+
+                maxSize = getMaxSize();
+                // The settings list every package directory, they are hashed once rather than with every class.
+                settings = digests.get().digest(getSettings().getBytes(StandardCharsets.UTF_8));
+                size.set(0);
+
+                for (Path entry : list(path))
+                {
+                    size.addAndGet(Files.size(entry));
+                }
+
+                directory = path;
+                JHCRLogger.info("Transform cache enabled: " + staticToString());
+            }
+            catch (Exception e)
+            {
+                e.printStackTrace();
+                JHCRLogger.warning("Transform cache disabled, invalid directory: " + directoryName);
+            }
+        }
+
+        initialized = true;
+    }
+
+    private static long getMaxSize ()
+    {
+        long megabytes;
+        try
+        {
+            megabytes = Long.parseLong(JHCRAgent.preferences.get("jhcr.cache.maxSize"));
+        }
+        catch (Exception e)
+        {
+            megabytes = 256;
+            JHCRLogger.fine("Transform cache size set to default value of 256MB.");
+        }
+
+        return megabytes * 1024 * 1024;
+    }
+
+    /**
+     * Everything that changes the output of the transformer for the same input has to be part of the key.
+     */
+    private static String getSettings ()
+    {
+        StringBuilder result = new StringBuilder();
+        result.append(JHCRTransformCache.class.getPackage().getImplementationVersion());
+
+        // Development builds keep the same version, so the agent jar itself is part of the key.
+        CodeSource codeSource = JHCRTransformCache.class.getProtectionDomain().getCodeSource();
+        URL location = codeSource == null ? null : codeSource.getLocation();
+
+        if (location != null && "file".equals(location.getProtocol()))
+        {
+            File agent;
+
+            try
+            {
+                agent = new File(location.toURI());
+            }
+            catch (URISyntaxException | IllegalArgumentException e)
+            {
+                agent = new File(location.getPath());
+            }
+
+            result.append(';').append(agent.length()).append(';').append(agent.lastModified());
+        }
+
+        String[] keys = { "jhcr.suffix", "jhcr.constructor.mode" };
+        for (String key : keys)
+        {
+            result.append(';').append(key).append('=').append(JHCRAgent.preferences.get(key));
+        }
+
+        result.append(';').append(JHCRTypeFilter.getConfiguration());
+
+        return result.toString();
+    }
+
+    private static synchronized void prune ()
+    {
+        if (size.get() <= maxSize)
+        {
+            return;
+        }
+
+        try
+        {
+            List<Entry> entries = new ArrayList<>();
+            long total = 0;
+
+            for (Path path : list(directory))
+            {
+                BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                entries.add(new Entry(path, attributes));
+                total += attributes.size();
+            }
+
+            Collections.sort(entries);
+
+            long target = maxSize / 10 * 9;
+
+            for (int i = 0; i < entries.size() && total > target; i++)
+            {
+                Entry entry = entries.get(i);
+
+                try
+                {
+                    if (Files.deleteIfExists(entry.path))
+                    {
+                        total -= entry.size;
+                        evictions.increment();
+                    }
+                }
+                catch (IOException e)
+                {
+                    JHCRLogger.finer("Could not evict cache entry: " + entry.path);
+                }
+            }
+
+            size.set(total);
+            JHCRLogger.fine("Transform cache pruned: " + staticToString());
+        }
+        catch (IOException e)
+        {
+            JHCRLogger.fine("Could not prune transform cache: " + e.getMessage());
+        }
+    }
+
+    private static List<Path> list (Path root) throws IOException
+    {
+        List<Path> entries = new ArrayList<>();
+
+        try (DirectoryStream<Path> subdirectories = Files.newDirectoryStream(root))
+        {
+            for (Path subdirectory : subdirectories)
+            {
+                if (!Files.isDirectory(subdirectory))
+                {
+                    continue;
+                }
+
+                try (DirectoryStream<Path> files = Files.newDirectoryStream(subdirectory))
+                {
+                    for (Path file : files)
+                    {
+                        if (file.getFileName().toString().endsWith(EXTENSION))
+                        {
+                            entries.add(file);
+                        }
+                    }
+                }
+            }
+        }
+
+        return entries;
+    }
+
+    private static Path getPath (String key)
+    {
+        return directory.resolve(key.substring(0, 2)).resolve(key.substring(2) + EXTENSION);
+    }
+
+    private static class Entry implements Comparable<Entry>
+    {
+        private final Path path;
+        private final FileTime time;
+        private final long size;
+
+        private Entry (Path path, BasicFileAttributes attributes)
+        {
+            this.path = path;
+            this.time = attributes.lastModifiedTime();
+            this.size = attributes.size();
+        }
+
+        @Override
+        public int compareTo (Entry other)
+        {
+            return this.time.compareTo(other.time);
+        }
+    }
+}
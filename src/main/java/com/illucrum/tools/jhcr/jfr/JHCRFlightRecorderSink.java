@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2025, Illucrum LLC
+ *
+ * This file is part of JHCR.
+ *
+ * JHCR is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * JHCR is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with JHCR. If not, see <https://www.gnu.org/licenses/gpl-3.0.html>.
+ */
+package com.illucrum.tools.jhcr.jfr;
+
+import jdk.jfr.EventType;
+
+import com.illucrum.tools.jhcr.metrics.JHCREventSink;
+
+/**
+ * Emits JHCR events as Java Flight Recorder events. Events are only allocated while a recording has them enabled.
+ * 
+ * @see com.illucrum.tools.jhcr.metrics.JHCREvents
+ * 
+ * @author Szymon Kokot
+ */
+public class JHCRFlightRecorderSink implements JHCREventSink
+{
+    private final EventType transformType = EventType.getEventType(JHCRTransformEvent.class);
+    private final EventType lookupMissType = EventType.getEventType(JHCRLookupMissEvent.class);
+    private final EventType redefineType = EventType.getEventType(JHCRRedefineEvent.class);
+    private final EventType overrideType = EventType.getEventType(JHCROverrideEvent.class);
+
+    @Override
+    public Object beginTransform ()
+    {
+        if (!this.transformType.isEnabled())
+        {
+            return null;
+        }
+
+        JHCRTransformEvent event = new JHCRTransformEvent();
+        event.begin();
+
+        return event;
+    }
+
+    @Override
+    public void commitTransform (Object event, String className, int originalSize, int transformedSize)
+    {
+        JHCRTransformEvent transformEvent = (JHCRTransformEvent) event;
+        transformEvent.end();
+
+        if (transformEvent.shouldCommit())
+        {
+            transformEvent.className = className;
+            transformEvent.originalSize = originalSize;
+            transformEvent.transformedSize = transformedSize;
+            transformEvent.commit();
+        }
+    }
+
+    @Override
+    public void commitLookupMiss (String className)
+    {
+        if (this.lookupMissType.isEnabled())
+        {
+            JHCRLookupMissEvent event = new JHCRLookupMissEvent();
+            event.className = className;
+            event.commit();
+        }
+    }
+
+    @Override
+    public Object beginRedefine ()
+    {
+        if (!this.redefineType.isEnabled())
+        {
+            return null;
+        }
+
+        JHCRRedefineEvent event = new JHCRRedefineEvent();
+        event.begin();
+
+        return event;
+    }
+
+    @Override
+    public void commitRedefine (Object event, int classCount, boolean success)
+    {
+        JHCRRedefineEvent redefineEvent = (JHCRRedefineEvent) event;
+        redefineEvent.end();
+
+        if (redefineEvent.shouldCommit())
+        {
+            redefineEvent.classCount = classCount;
+            redefineEvent.success = success;
+            redefineEvent.commit();
+        }
+    }
+
+    @Override
+    public void commitOverride (String className, String overrideName)
+    {
+        if (this.overrideType.isEnabled())
+        {
+            JHCROverrideEvent event = new JHCROverrideEvent();
+            event.className = className;
+            event.overrideName = overrideName;
+            event.commit();
+        }
+    }
+}
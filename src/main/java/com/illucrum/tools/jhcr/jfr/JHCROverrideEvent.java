@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2025, Illucrum LLC
+ *
+ * This file is part of JHCR.
+ *
+ * JHCR is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * JHCR is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with JHCR. If not, see <https://www.gnu.org/licenses/gpl-3.0.html>.
+ */
+package com.illucrum.tools.jhcr.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Definition of an override class for a class that could not be redefined.
+ * 
+ * @author Szymon Kokot
+ */
+@Name("com.illucrum.tools.jhcr.Override")
+@Label("Class Override")
+@Category("JHCR")
+@Description("Definition of an override class for a class that could not be redefined.")
+public class JHCROverrideEvent extends Event
+{
+    @Label("Class Name")
+    String className;
+
+    @Label("Override Name")
+    String overrideName;
+}
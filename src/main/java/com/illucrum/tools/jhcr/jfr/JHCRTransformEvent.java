@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2025, Illucrum LLC
+ *
+ * This file is part of JHCR.
+ *
+ * JHCR is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * JHCR is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with JHCR. If not, see <https://www.gnu.org/licenses/gpl-3.0.html>.
+ */
+package com.illucrum.tools.jhcr.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Transformation of a class by the JHCR transformer.
+ * 
+ * @author Szymon Kokot
+ */
+@Name("com.illucrum.tools.jhcr.Transform")
+@Label("Class Transform")
+@Category("JHCR")
+@Description("Transformation of a class by the JHCR transformer.")
+public class JHCRTransformEvent extends Event
+{
+    @Label("Class Name")
+    String className;
+
+    @Label("Original Size")
+    @DataAmount
+    int originalSize;
+
+    @Label("Transformed Size")
+    @DataAmount
+    int transformedSize;
+}
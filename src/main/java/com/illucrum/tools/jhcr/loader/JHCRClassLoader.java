@@ -19,6 +19,7 @@ import java.net.URL;
 import java.util.jar.JarFile;
 
 import com.illucrum.tools.jhcr.logger.JHCRLogger;
+import com.illucrum.tools.jhcr.repo.JHCRMissingRepository;
 
 /**
  * Intended to be the system class loader. It fallsback on {@link com.illucrum.tools.jhcr.loader.JHCRURLClassLoader} for class loading.
@@ -34,6 +35,11 @@ public class JHCRClassLoader extends ClassLoader
     private JHCRURLClassLoader urlLoader;
     public static ClassLoader parent;
 
+    static
+    {
+        ClassLoader.registerAsParallelCapable();
+    }
+
     /**
      * Constructs a new JHCRClassLoader
      * 
@@ -82,6 +88,25 @@ public class JHCRClassLoader extends ClassLoader
     @Override
     protected Class<?> loadClass (String name, boolean resolve) throws ClassNotFoundException
     {
+        ClassLoader parent = this.getParent();
+
+        if (parent != null && isPlatformClass(name))
+        {
+            Class<?> result = parent.loadClass(name);
+
+            if (resolve)
+            {
+                this.resolveClass(result);
+            }
+
+            return result;
+        }
+
+        if (JHCRMissingRepository.contains(name))
+        {
+            throw new ClassNotFoundException(name);
+        }
+
         JHCRLogger.finest("Loading: " + name + " from system loader...");
         Class<?> result = null;
 
@@ -108,7 +133,8 @@ public class JHCRClassLoader extends ClassLoader
 
         if (result == null)
         {
-            throw new ClassNotFoundException();
+            JHCRMissingRepository.put(name);
+            throw new ClassNotFoundException(name);
         }
         else if (resolve)
         {
@@ -118,6 +144,18 @@ public class JHCRClassLoader extends ClassLoader
         return result;
     }
 
+    /**
+     * Checks if a class belongs to the Java platform, so it can't be found in the class path and can't be reloaded.
+     * 
+     * @param name
+     *            the binary name of the class
+     * @return true if the class is to be loaded by the parent class loader straight away
+     */
+    static boolean isPlatformClass (String name)
+    {
+        return name.startsWith("java.") || name.startsWith("jdk.");
+    }
+
     /**
      * Getter method for the {@link com.illucrum.tools.jhcr.loader.JHCRURLClassLoader} in use.
      * 
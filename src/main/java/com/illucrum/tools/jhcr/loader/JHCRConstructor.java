@@ -13,18 +13,75 @@
  */
 package com.illucrum.tools.jhcr.loader;
 
-import java.lang.reflect.Constructor;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.SwitchPoint;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.illucrum.tools.jhcr.logger.JHCRLogger;
+import com.illucrum.tools.jhcr.metrics.JHCRMetrics;
 
 /**
- * This class is has one static method that is used instead of construtors as part of the bytcode manipulation done by
+ * This class has static methods that are used instead of construtors as part of the bytcode manipulation done by
  * {@link com.illucrum.tools.jhcr.writer.JHCRConstructorRewriter}.
  * 
+ * <p>
+ * Resolved constructors are cached as {@link java.lang.invoke.MethodHandle}s, keyed by the class name and the constructor descriptor. When a class is
+ * overridden, {@link #invalidate(String)} drops the cached constructors of that class only, and invalidates the {@link java.lang.invoke.SwitchPoint}
+ * guarding the {@link com.illucrum.tools.jhcr.loader.JHCRConstructorSite} call sites linked to it.
+ * </p>
+ * 
+ * <p>
+ * Constructors with few arguments are called through the arity specialized <code>constructN</code> methods, which take the arguments directly, so no array
+ * is allocated and no primitive is boxed. The others are called through {@link #construct(String, String, Object[])}.
+ * </p>
+ * 
  * @author Szymon Kokot
  */
 public class JHCRConstructor
 {
+    private static final MethodType SPREAD_TYPE = MethodType.methodType(Object.class, Object[].class);
+    private static final MethodType TYPE_0 = MethodType.methodType(Object.class);
+    private static final MethodType TYPE_OBJECT = MethodType.methodType(Object.class, Object.class);
+    private static final MethodType TYPE_INT = MethodType.methodType(Object.class, int.class);
+    private static final MethodType TYPE_LONG = MethodType.methodType(Object.class, long.class);
+    private static final MethodType TYPE_DOUBLE = MethodType.methodType(Object.class, double.class);
+    private static final MethodType TYPE_OBJECT_OBJECT = MethodType.methodType(Object.class, Object.class, Object.class);
+    private static final MethodType TYPE_INT_INT = MethodType.methodType(Object.class, int.class, int.class);
+    private static final MethodType TYPE_LONG_LONG = MethodType.methodType(Object.class, long.class, long.class);
+    private static final MethodType TYPE_DOUBLE_DOUBLE = MethodType.methodType(Object.class, double.class, double.class);
+    private static final MethodType TYPE_OBJECT_OBJECT_OBJECT = MethodType.methodType(Object.class, Object.class, Object.class, Object.class);
+    private static final MethodType TYPE_OBJECT_OBJECT_OBJECT_OBJECT = MethodType.methodType(Object.class, Object.class, Object.class, Object.class,
+            Object.class);
+    private static final ConcurrentHashMap<String, ConcurrentHashMap<String, MethodHandle>> handles = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, SwitchPoint> switchPoints = new ConcurrentHashMap<>();
+
+    /**
+     * This method is to be used instead of constructors
+     * 
+     * @param className
+     *            the binary class name of the class to be instanciated
+     * @param desc
+     *            the descriptor of the constructor to be called
+     * @param values
+     *            Array containing the values of the arguments passed to the constructor
+     * @return resulting object
+     */
+    public static Object construct (String className, String desc, Object[] values)
+    {
+        try
+        {
+            return (Object) getHandle(className, desc, SPREAD_TYPE).invokeExact(values);
+        }
+        catch (Throwable e)
+        {
+            e.printStackTrace();
+        }
+
+        return null;
+    }
+
     /**
      * This method is to be used instead of constructors
      * 
@@ -35,21 +92,411 @@ public class JHCRConstructor
      * @param values
      *            Array containing the values of the arguments passed to the constructor
      * @return resulting object
+     * 
+     * @see #construct(String, String, Object[])
      */
     public static Object construct (String className, Class<?>[] types, Object[] values)
     {
-        JHCRLogger.finest("Construct: " + className);
+        return construct(className, MethodType.methodType(void.class, types).toMethodDescriptorString(), values);
+    }
+
+    /**
+     * Arity specialized version of {@link #construct(String, String, Object[])} for constructors without arguments.
+     * 
+     * @param className
+     *            the binary class name of the class to be instanciated
+     * @param desc
+     *            the descriptor of the constructor to be called
+     * @return resulting object
+     */
+    public static Object construct0 (String className, String desc)
+    {
+        try
+        {
+            return (Object) getHandle(className, desc, TYPE_0).invokeExact();
+        }
+        catch (Throwable e)
+        {
+            e.printStackTrace();
+        }
+
+        return null;
+    }
+
+    /**
+     * Arity specialized version of {@link #construct(String, String, Object[])} for constructors taking one reference argument.
+     * 
+     * @param a0
+     *            argument 1 of the constructor
+     * @param className
+     *            the binary class name of the class to be instanciated
+     * @param desc
+     *            the descriptor of the constructor to be called
+     * @return resulting object
+     */
+    public static Object construct1 (Object a0, String className, String desc)
+    {
+        try
+        {
+            return (Object) getHandle(className, desc, TYPE_OBJECT).invokeExact(a0);
+        }
+        catch (Throwable e)
+        {
+            e.printStackTrace();
+        }
+
+        return null;
+    }
+
+    /**
+     * Arity specialized version of {@link #construct(String, String, Object[])} for constructors taking one <code>int</code>, <code>short</code>,
+     * <code>char</code>, <code>byte</code> or <code>boolean</code> argument.
+     * 
+     * @param a0
+     *            argument 1 of the constructor
+     * @param className
+     *            the binary class name of the class to be instanciated
+     * @param desc
+     *            the descriptor of the constructor to be called
+     * @return resulting object
+     */
+    public static Object construct1 (int a0, String className, String desc)
+    {
+        try
+        {
+            return (Object) getHandle(className, desc, TYPE_INT).invokeExact(a0);
+        }
+        catch (Throwable e)
+        {
+            e.printStackTrace();
+        }
+
+        return null;
+    }
+
+    /**
+     * Arity specialized version of {@link #construct(String, String, Object[])} for constructors taking one <code>long</code> argument.
+     * 
+     * @param a0
+     *            argument 1 of the constructor
+     * @param className
+     *            the binary class name of the class to be instanciated
+     * @param desc
+     *            the descriptor of the constructor to be called
+     * @return resulting object
+     */
+    public static Object construct1 (long a0, String className, String desc)
+    {
+        try
+        {
+            return (Object) getHandle(className, desc, TYPE_LONG).invokeExact(a0);
+        }
+        catch (Throwable e)
+        {
+            e.printStackTrace();
+        }
+
+        return null;
+    }
+
+    /**
+     * Arity specialized version of {@link #construct(String, String, Object[])} for constructors taking one <code>double</code> argument.
+     * 
+     * @param a0
+     *            argument 1 of the constructor
+     * @param className
+     *            the binary class name of the class to be instanciated
+     * @param desc
+     *            the descriptor of the constructor to be called
+     * @return resulting object
+     */
+    public static Object construct1 (double a0, String className, String desc)
+    {
+        try
+        {
+            return (Object) getHandle(className, desc, TYPE_DOUBLE).invokeExact(a0);
+        }
+        catch (Throwable e)
+        {
+            e.printStackTrace();
+        }
+
+        return null;
+    }
+
+    /**
+     * Arity specialized version of {@link #construct(String, String, Object[])} for constructors taking two reference arguments.
+     * 
+     * @param a0
+     *            argument 1 of the constructor
+     * @param a1
+     *            argument 2 of the constructor
+     * @param className
+     *            the binary class name of the class to be instanciated
+     * @param desc
+     *            the descriptor of the constructor to be called
+     * @return resulting object
+     */
+    public static Object construct2 (Object a0, Object a1, String className, String desc)
+    {
+        try
+        {
+            return (Object) getHandle(className, desc, TYPE_OBJECT_OBJECT).invokeExact(a0, a1);
+        }
+        catch (Throwable e)
+        {
+            e.printStackTrace();
+        }
+
+        return null;
+    }
+
+    /**
+     * Arity specialized version of {@link #construct(String, String, Object[])} for constructors taking two <code>int</code>-like arguments.
+     * 
+     * @param a0
+     *            argument 1 of the constructor
+     * @param a1
+     *            argument 2 of the constructor
+     * @param className
+     *            the binary class name of the class to be instanciated
+     * @param desc
+     *            the descriptor of the constructor to be called
+     * @return resulting object
+     */
+    public static Object construct2 (int a0, int a1, String className, String desc)
+    {
+        try
+        {
+            return (Object) getHandle(className, desc, TYPE_INT_INT).invokeExact(a0, a1);
+        }
+        catch (Throwable e)
+        {
+            e.printStackTrace();
+        }
+
+        return null;
+    }
+
+    /**
+     * Arity specialized version of {@link #construct(String, String, Object[])} for constructors taking two <code>long</code> arguments.
+     * 
+     * @param a0
+     *            argument 1 of the constructor
+     * @param a1
+     *            argument 2 of the constructor
+     * @param className
+     *            the binary class name of the class to be instanciated
+     * @param desc
+     *            the descriptor of the constructor to be called
+     * @return resulting object
+     */
+    public static Object construct2 (long a0, long a1, String className, String desc)
+    {
+        try
+        {
+            return (Object) getHandle(className, desc, TYPE_LONG_LONG).invokeExact(a0, a1);
+        }
+        catch (Throwable e)
+        {
+            e.printStackTrace();
+        }
+
+        return null;
+    }
+
+    /**
+     * Arity specialized version of {@link #construct(String, String, Object[])} for constructors taking two <code>double</code> arguments.
+     * 
+     * @param a0
+     *            argument 1 of the constructor
+     * @param a1
+     *            argument 2 of the constructor
+     * @param className
+     *            the binary class name of the class to be instanciated
+     * @param desc
+     *            the descriptor of the constructor to be called
+     * @return resulting object
+     */
+    public static Object construct2 (double a0, double a1, String className, String desc)
+    {
+        try
+        {
+            return (Object) getHandle(className, desc, TYPE_DOUBLE_DOUBLE).invokeExact(a0, a1);
+        }
+        catch (Throwable e)
+        {
+            e.printStackTrace();
+        }
+
+        return null;
+    }
+
+    /**
+     * Arity specialized version of {@link #construct(String, String, Object[])} for constructors taking three reference arguments.
+     * 
+     * @param a0
+     *            argument 1 of the constructor
+     * @param a1
+     *            argument 2 of the constructor
+     * @param a2
+     *            argument 3 of the constructor
+     * @param className
+     *            the binary class name of the class to be instanciated
+     * @param desc
+     *            the descriptor of the constructor to be called
+     * @return resulting object
+     */
+    public static Object construct3 (Object a0, Object a1, Object a2, String className, String desc)
+    {
+        try
+        {
+            return (Object) getHandle(className, desc, TYPE_OBJECT_OBJECT_OBJECT).invokeExact(a0, a1, a2);
+        }
+        catch (Throwable e)
+        {
+            e.printStackTrace();
+        }
+
+        return null;
+    }
+
+    /**
+     * Arity specialized version of {@link #construct(String, String, Object[])} for constructors taking four reference arguments.
+     * 
+     * @param a0
+     *            argument 1 of the constructor
+     * @param a1
+     *            argument 2 of the constructor
+     * @param a2
+     *            argument 3 of the constructor
+     * @param a3
+     *            argument 4 of the constructor
+     * @param className
+     *            the binary class name of the class to be instanciated
+     * @param desc
+     *            the descriptor of the constructor to be called
+     * @return resulting object
+     */
+    public static Object construct4 (Object a0, Object a1, Object a2, Object a3, String className, String desc)
+    {
         try
         {
-            Class<?> clazz = ClassLoader.getSystemClassLoader().loadClass(className);
-            Constructor<?> constructor = clazz.getConstructor(types);
-            return constructor.newInstance(values);
+            return (Object) getHandle(className, desc, TYPE_OBJECT_OBJECT_OBJECT_OBJECT).invokeExact(a0, a1, a2, a3);
         }
-        catch (Exception e)
+        catch (Throwable e)
         {
             e.printStackTrace();
         }
 
         return null;
     }
+
+    /**
+     * Drops all cached constructors of the given class, so the next construction resolves the class again.
+     * 
+     * @param className
+     *            the binary class name of the overridden class
+     */
+    public static void invalidate (String className)
+    {
+        if (handles.remove(className) != null)
+        {
+            JHCRLogger.finer("Constructors invalidated: " + className);
+        }
+
+        SwitchPoint switchPoint = switchPoints.remove(className);
+
+        if (switchPoint != null)
+        {
+            JHCRLogger.finer("Call sites invalidated: " + className);
+            SwitchPoint.invalidateAll(new SwitchPoint[] { switchPoint });
+        }
+    }
+
+    /**
+     * Returns the switch point that stays valid until the given class is overridden. It has to be taken before the class is resolved, so an override that
+     * happens in between is not missed.
+     * 
+     * @param className
+     *            the binary class name
+     * @return the current switch point of the class
+     */
+    static SwitchPoint getSwitchPoint (String className)
+    {
+        SwitchPoint switchPoint = switchPoints.get(className);
+
+        if (switchPoint == null)
+        {
+            SwitchPoint newSwitchPoint = new SwitchPoint();
+            switchPoint = switchPoints.putIfAbsent(className, newSwitchPoint);
+
+            if (switchPoint == null)
+            {
+                switchPoint = newSwitchPoint;
+            }
+        }
+
+        return switchPoint;
+    }
+
+    /**
+     * Loads the newest version of the given class.
+     * 
+     * @param className
+     *            the binary class name
+     * @return the class, or its latest override
+     * @throws ClassNotFoundException
+     */
+    static Class<?> loadClass (String className) throws ClassNotFoundException
+    {
+        return ClassLoader.getSystemClassLoader().loadClass(className);
+    }
+
+    private static MethodHandle getHandle (String className, String desc, MethodType type) throws ReflectiveOperationException
+    {
+        JHCRMetrics.recordConstruction();
+
+        // The class entry is taken before resolving, so an override that happens meanwhile invalidates it instead of being missed.
+        ConcurrentHashMap<String, MethodHandle> classHandles = handles.get(className);
+
+        if (classHandles == null)
+        {
+            ConcurrentHashMap<String, MethodHandle> newHandles = new ConcurrentHashMap<>();
+            classHandles = handles.putIfAbsent(className, newHandles);
+
+            if (classHandles == null)
+            {
+                classHandles = newHandles;
+            }
+        }
+
+        MethodHandle handle = classHandles.get(desc);
+
+        // A descriptor is always called through the same entry point by rewritten code, so a type mismatch only happens on direct calls.
+        if (handle == null || handle.type() != type)
+        {
+            handle = resolve(className, desc, type);
+            classHandles.put(desc, handle);
+        }
+
+        return handle;
+    }
+
+    private static MethodHandle resolve (String className, String desc, MethodType type) throws ReflectiveOperationException
+    {
+        JHCRLogger.finest("Resolving constructor: " + className + " " + desc);
+
+        Class<?> clazz = loadClass(className);
+        MethodType constructorType = MethodType.fromMethodDescriptorString(desc, clazz.getClassLoader());
+        MethodHandle constructor = MethodHandles.publicLookup().findConstructor(clazz, constructorType);
+
+        if (type == SPREAD_TYPE)
+        {
+            return constructor.asSpreader(Object[].class, constructorType.parameterCount()).asType(SPREAD_TYPE);
+        }
+
+        // Narrows the int entry points to short, char, byte and boolean arguments.
+        return MethodHandles.explicitCastArguments(constructor, type);
+    }
 }
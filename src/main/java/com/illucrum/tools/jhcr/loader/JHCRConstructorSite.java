@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2025, Illucrum LLC
+ *
+ * This file is part of JHCR.
+ *
+ * JHCR is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * JHCR is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with JHCR. If not, see <https://www.gnu.org/licenses/gpl-3.0.html>.
+ */
+package com.illucrum.tools.jhcr.loader;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodHandles.Lookup;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.MutableCallSite;
+import java.lang.invoke.SwitchPoint;
+
+import com.illucrum.tools.jhcr.logger.JHCRLogger;
+
+/**
+ * Call site used instead of constructors when the <code>jhcr.constructor.mode</code> preference is set to <code>indy</code>. Each rewritten constructor call
+ * is an <code>invokedynamic</code> instruction bootstrapped by {@link #bootstrap(Lookup, String, MethodType)}.
+ * 
+ * <p>
+ * The call site is linked straight to the constructor of the newest version of the class, guarded by the switch point of that class. When the class is
+ * overridden, {@link com.illucrum.tools.jhcr.loader.JHCRConstructor#invalidate(String)} invalidates the switch point, and the next call relinks the site.
+ * </p>
+ * 
+ * @author Szymon Kokot
+ */
+public class JHCRConstructorSite extends MutableCallSite
+{
+    private static final MethodHandle RELINK;
+
+    static
+    {
+        try
+        {
+            RELINK = MethodHandles
+                    .lookup()
+                    .findVirtual(JHCRConstructorSite.class, "relink", MethodType.methodType(Object.class, Object[].class));
+        }
+        catch (ReflectiveOperationException e)
+        {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final Lookup lookup;
+    private final String className;
+
+    /**
+     * Constructs a new {@link com.illucrum.tools.jhcr.loader.JHCRConstructorSite}.
+     * 
+     * @param lookup
+     *            lookup of the class containing the constructor call
+     * @param type
+     *            type of the call site, returning the instantiated class
+     */
+    public JHCRConstructorSite (Lookup lookup, MethodType type)
+    {
+        super(type);
+        this.lookup = lookup;
+        this.className = type.returnType().getName();
+    }
+
+    /**
+     * Bootstrap method of the rewritten constructor calls.
+     * 
+     * @param lookup
+     *            lookup of the class containing the constructor call
+     * @param name
+     *            name of the call site, not used
+     * @param type
+     *            type of the call site, taking the constructor arguments and returning the instantiated class
+     * @return the linked call site
+     */
+    public static CallSite bootstrap (Lookup lookup, String name, MethodType type)
+    {
+        JHCRConstructorSite site = new JHCRConstructorSite(lookup, type);
+        site.setTarget(site.link());
+        return site;
+    }
+
+    private MethodHandle link ()
+    {
+        SwitchPoint switchPoint = JHCRConstructor.getSwitchPoint(this.className);
+        MethodType constructorType = this.type().changeReturnType(void.class);
+        MethodHandle constructor;
+
+        try
+        {
+            Class<?> clazz = JHCRConstructor.loadClass(this.className);
+            constructor = this.lookup.findConstructor(clazz, constructorType);
+            JHCRLogger.finer("Call site linked: " + clazz.getName() + " " + constructorType);
+        }
+        catch (ReflectiveOperationException e)
+        {
+            JHCRLogger.fine("Could not link call site to the newest " + this.className + ": " + e.getMessage());
+
+            try
+            {
+                constructor = this.lookup.findConstructor(this.type().returnType(), constructorType);
+            }
+            catch (ReflectiveOperationException ex)
+            {
+                throw new IllegalStateException("Could not link constructor call site: " + this.className, ex);
+            }
+        }
+
+        MethodHandle fallback = RELINK.bindTo(this).asCollector(Object[].class, this.type().parameterCount()).asType(this.type());
+
+        return switchPoint.guardWithTest(constructor.asType(this.type()), fallback);
+    }
+
+    private Object relink (Object[] args) throws Throwable
+    {
+        MethodHandle target = this.link();
+        this.setTarget(target);
+
+        return target.invokeWithArguments(args);
+    }
+}
@@ -13,6 +13,10 @@
  */
 package com.illucrum.tools.jhcr.loader;
 
+import java.nio.ByteBuffer;
+import java.security.ProtectionDomain;
+import java.util.concurrent.ConcurrentHashMap;
+
 /**
  * This interface should be implemented by any custom class loaders. If a class loader does not, the transformer should take care of it.
  * 
@@ -36,4 +40,43 @@ public interface JHCRCustomLoader
      * @return the class returned by {@link java.lang.ClassLoader#defineClass(String, byte[], int, int)}
      */
     Class<?> defineClassWrapper (String name, byte[] bytecode, int off, int len);
+
+    /**
+     * Just a wrapper for the {@link java.lang.ClassLoader#defineClass(String, ByteBuffer, ProtectionDomain)}
+     * 
+     * <p>
+     * Loaders instrumented by the transformer define the class straight from the buffer. Loaders implementing this interface themselves fall back on
+     * {@link #defineClassWrapper(String, byte[], int, int)}, copying the buffer and ignoring the protection domain.
+     * </p>
+     * 
+     * @param name
+     *            Name of the class to be defined.
+     * @param bytecode
+     *            Bytecode of the class to be defined, from its position to its limit
+     * @param protectionDomain
+     *            The protection domain of the class, may be null
+     * @return the class returned by {@link java.lang.ClassLoader#defineClass(String, ByteBuffer, ProtectionDomain)}
+     */
+    default Class<?> defineClassWrapper (String name, ByteBuffer bytecode, ProtectionDomain protectionDomain)
+    {
+        byte[] array = new byte[bytecode.remaining()];
+        bytecode.get(array);
+
+        return this.defineClassWrapper(name, array, 0, array.length);
+    }
+
+    /**
+     * Returns the classes stored for this loader by {@link com.illucrum.tools.jhcr.repo.JHCRCustomRepository}.
+     * 
+     * <p>
+     * Loaders instrumented by the transformer keep them in a field, so each loader is looked up without any lock and its classes go away with it. Loaders
+     * implementing this interface themselves have no rewritten {@link java.lang.ClassLoader#loadClass(String, boolean)} and store nothing.
+     * </p>
+     * 
+     * @return the classes stored for this loader, or null if it stores none
+     */
+    default ConcurrentHashMap<String, Class<?>> getRepositoryShard ()
+    {
+        return null;
+    }
 }
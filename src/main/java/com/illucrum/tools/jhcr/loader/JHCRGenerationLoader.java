@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2025, Illucrum LLC
+ *
+ * This file is part of JHCR.
+ *
+ * JHCR is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * JHCR is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with JHCR. If not, see <https://www.gnu.org/licenses/gpl-3.0.html>.
+ */
+package com.illucrum.tools.jhcr.loader;
+
+import java.nio.ByteBuffer;
+import java.security.ProtectionDomain;
+
+/**
+ * Disposable class loader defining the classes of one override generation. Its parent is the loader of the original classes, so override classes see the
+ * same classes as the originals.
+ * 
+ * <p>
+ * Once a newer generation replaces its classes in the repositories and no instances remain, the loader and its classes can be unloaded, and their
+ * metaspace reclaimed.
+ * </p>
+ * 
+ * @see com.illucrum.tools.jhcr.repo.JHCRGenerationRepository
+ * 
+ * @author Szymon Kokot
+ */
+public class JHCRGenerationLoader extends ClassLoader implements JHCRCustomLoader
+{
+    private final long generation;
+
+    /**
+     * Constructs a new {@link com.illucrum.tools.jhcr.loader.JHCRGenerationLoader}.
+     * 
+     * @param parent
+     *            the loader of the original classes
+     * @param generation
+     *            the number of the generation
+     */
+    public JHCRGenerationLoader (ClassLoader parent, long generation)
+    {
+        super(parent);
+        this.generation = generation;
+    }
+
+    /**
+     * @return the number of the generation
+     */
+    public long getGeneration ()
+    {
+        return this.generation;
+    }
+
+    /**
+     * Loads classes through the parent. The parent returns the latest override of a reloaded class, while the classes of this generation link against
+     * the original one, which every override extends.
+     */
+    @Override
+    protected Class<?> loadClass (String name, boolean resolve) throws ClassNotFoundException
+    {
+        Class<?> result = super.loadClass(name, resolve);
+
+        while (result != null && !result.getName().equals(name))
+        {
+            result = result.getSuperclass();
+        }
+
+        if (result == null)
+        {
+            throw new ClassNotFoundException(name);
+        }
+
+        return result;
+    }
+
+    @Override
+    public Class<?> defineClassWrapper (String name, byte[] bytecode, int off, int len)
+    {
+        return super.defineClass(name, bytecode, off, len);
+    }
+
+    @Override
+    public Class<?> defineClassWrapper (String name, ByteBuffer bytecode, ProtectionDomain protectionDomain)
+    {
+        return super.defineClass(name, bytecode, protectionDomain);
+    }
+
+    @Override
+    public String toString ()
+    {
+        return "JHCRGenerationLoader[" + this.generation + "]";
+    }
+}
@@ -0,0 +1,557 @@
+/*
+ * Copyright (C) 2025, Illucrum LLC
+ *
+ * This file is part of JHCR.
+ *
+ * JHCR is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * JHCR is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with JHCR. If not, see <https://www.gnu.org/licenses/gpl-3.0.html>.
+ */
+package com.illucrum.tools.jhcr.loader;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.net.JarURLConnection;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.stream.Collectors;
+
+import com.illucrum.tools.jhcr.logger.JHCRLogger;
+import com.illucrum.tools.jhcr.vars.JHCRVariables;
+
+/**
+ * Index from package names to the class path entries of a {@link com.illucrum.tools.jhcr.loader.JHCRURLClassLoader} containing them, so a lookup only
+ * searches the entries that can have the class or resource.
+ * 
+ * <p>
+ * Jars are indexed in parallel. Directories, and entries that aren't local files, are consulted for every package, as their contents change. The index can
+ * be persisted to a file, where the packages of a jar are reused as long as its path, size and modification time match.
+ * </p>
+ * 
+ * <p>
+ * Resources are looked up in a single entry the way {@link java.net.URLClassLoader} does: relative to the URL of directories, and in the jar file of the
+ * other entries. Jar files are opened through their <code>jar:</code> URL, so they are shared with the cache of the JDK that reads the classes later on.
+ * When a jar is rewritten, see {@link #refresh(File)}, it is indexed again and its jar files are closed, which also drops them from that cache.
+ * </p>
+ * 
+ * @author Szymon Kokot
+ */
+public class JHCRPackageIndex
+{
+    private static final String VERSIONS_PREFIX = "META-INF/versions/";
+    private static final String SEPARATOR = "\t";
+    private static final String JAR_SEPARATOR = "!/";
+    private static final String RUNTIME_VERSION = "#runtime";
+    private static final String MULTI_RELEASE = "Multi-Release";
+
+    private final List<URL> pending = new ArrayList<>();
+    private List<Entry> entries = null;
+    private volatile Map<String, Entry[]> packages = null;
+    private volatile Entry[] unindexed = new Entry[0];
+
+    /**
+     * A class path entry and the packages it contains.
+     */
+    static class Entry
+    {
+        final URL url;
+        final String path;
+        final long size;
+        final long lastModified;
+        final Set<String> packages;
+        int position;
+        private volatile JarFile jar;
+        private volatile JarFile baseJar;
+        private volatile String jarVersion;
+
+        Entry (URL url, String path, long size, long lastModified, Set<String> packages)
+        {
+            this.url = url;
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.packages = packages;
+        }
+
+        /**
+         * Finds a resource in this entry only.
+         * 
+         * @return the URL of the resource, or null if the entry doesn't contain it
+         */
+        URL find (String name)
+        {
+            try
+            {
+                String encoded = new URI(null, null, name, null).getRawPath();
+
+                // Like URLClassLoader, a URL ending with a slash is a directory.
+                if (this.url.getPath().endsWith("/"))
+                {
+                    File directory = toFile(this.url);
+
+                    if (directory != null)
+                    {
+                        return new File(directory, name).isFile() ? this.url.toURI().resolve(encoded).toURL() : null;
+                    }
+
+                    URL resource = this.url.toURI().resolve(encoded).toURL();
+
+                    // Other protocols only tell if a resource exists when it is opened.
+                    resource.openStream().close();
+
+                    return resource;
+                }
+
+                JarFile jarFile = this.getJar();
+
+                return jarFile.getJarEntry(name) == null ? null : new URI("jar:" + this.url + JAR_SEPARATOR + encoded + this.jarVersion).toURL();
+            }
+            catch (IOException | URISyntaxException | IllegalArgumentException e)
+            {
+                return null;
+            }
+        }
+
+        private JarFile getJar () throws IOException
+        {
+            JarFile result = this.jar;
+
+            if (result == null)
+            {
+                result = openJar("");
+                Manifest manifest = result.getManifest();
+                this.jarVersion = "";
+
+                // Versioned entries of multi-release jars are only read through a jar URL asking for the runtime version.
+                if (manifest != null && Boolean.parseBoolean(manifest.getMainAttributes().getValue(MULTI_RELEASE)))
+                {
+                    this.jarVersion = RUNTIME_VERSION;
+                    this.baseJar = result;
+                    result = openJar(RUNTIME_VERSION);
+                }
+
+                this.jar = result;
+            }
+
+            return result;
+        }
+
+        private JarFile openJar (String version) throws IOException
+        {
+            try
+            {
+                return ((JarURLConnection) new URI("jar:" + this.url + JAR_SEPARATOR + version).toURL().openConnection()).getJarFile();
+            }
+            catch (URISyntaxException e)
+            {
+                throw new IOException(e);
+            }
+        }
+
+        /**
+         * Closes the jar files opened for this entry. Jar files of the JDK cache are removed from it when closed.
+         */
+        void close ()
+        {
+            for (JarFile jarFile : new JarFile[] { this.jar, this.baseJar })
+            {
+                try
+                {
+                    if (jarFile != null)
+                    {
+                        jarFile.close();
+                    }
+                }
+                catch (IOException e)
+                {
+                    JHCRLogger.finer("Could not close " + jarFile.getName() + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * A resource found in the index.
+     */
+    static class Resource
+    {
+        final URL base;
+        final URL url;
+
+        Resource (URL base, URL url)
+        {
+            this.base = base;
+            this.url = url;
+        }
+    }
+
+    /**
+     * Indexes the class path entries added so far, reusing the persisted index if available. Entries added while building are indexed too.
+     * 
+     * @param indexFile
+     *            the file to persist the index to, may be null
+     */
+    public void build (Path indexFile)
+    {
+        long start = System.currentTimeMillis();
+        Map<String, Entry> persisted = indexFile == null ? Collections.<String, Entry> emptyMap() : read(indexFile);
+        List<URL> urls;
+
+        synchronized (this)
+        {
+            if (this.entries != null)
+            {
+                return;
+            }
+
+            urls = new ArrayList<>(this.pending);
+            this.pending.clear();
+        }
+
+        List<Entry> built = urls.parallelStream().map(url -> index(url, persisted)).collect(Collectors.toList());
+
+        synchronized (this)
+        {
+            this.entries = new ArrayList<>(built);
+
+            for (URL url : this.pending)
+            {
+                this.entries.add(index(url, persisted));
+            }
+
+            this.pending.clear();
+            this.publish();
+        }
+
+        JHCRLogger.info("Indexed " + urls.size() + " class path entries in " + (System.currentTimeMillis() - start) + "ms.");
+
+        if (indexFile != null)
+        {
+            write(indexFile);
+        }
+    }
+
+    /**
+     * Adds a class path entry at the end of the search order. Until the index is built, entries are only recorded.
+     * 
+     * @param url
+     *            the class path entry
+     */
+    public synchronized void add (URL url)
+    {
+        if (this.entries == null)
+        {
+            this.pending.add(url);
+            return;
+        }
+
+        this.entries.add(index(url, Collections.<String, Entry> emptyMap()));
+        this.publish();
+    }
+
+    /**
+     * Indexes a rewritten jar again, and closes the jar files opened for it, so the classes and resources not read yet come from its new contents.
+     * 
+     * @param file
+     *            the jar
+     */
+    public void refresh (File file)
+    {
+        Path path = normalize(file);
+        List<Entry> replaced = new ArrayList<>();
+
+        synchronized (this)
+        {
+            if (this.entries == null)
+            {
+                return;
+            }
+
+            for (int i = 0; i < this.entries.size(); i++)
+            {
+                Entry entry = this.entries.get(i);
+                File entryFile = toFile(entry.url);
+
+                if (entryFile != null && path.equals(normalize(entryFile)))
+                {
+                    this.entries.set(i, index(entry.url, Collections.<String, Entry> emptyMap()));
+                    replaced.add(entry);
+                }
+            }
+
+            this.publish();
+        }
+
+        // The new entries are published first, so lookups don't reopen the old jar files.
+        for (Entry entry : replaced)
+        {
+            entry.close();
+        }
+
+        JHCRLogger.fine("Indexed again: " + path);
+    }
+
+    /**
+     * @return true once the index is built
+     */
+    public boolean isReady ()
+    {
+        return this.packages != null;
+    }
+
+    /**
+     * Finds a resource in the entries that may contain it.
+     * 
+     * @param name
+     *            the resource name
+     * @return the resource, or null if not found
+     */
+    Resource findResource (String name)
+    {
+        for (Entry entry : getEntries(name))
+        {
+            URL url = entry.find(name);
+
+            if (url != null)
+            {
+                return new Resource(entry.url, url);
+            }
+        }
+
+        return null;
+    }
+
+    private Entry[] getEntries (String name)
+    {
+        int separator = name.lastIndexOf('/');
+        Entry[] result = this.packages.get(separator == -1 ? "" : name.substring(0, separator));
+
+        return result == null ? this.unindexed : result;
+    }
+
+    private void publish ()
+    {
+        Map<String, List<Entry>> lists = new HashMap<>();
+        List<Entry> always = new ArrayList<>();
+
+        for (int i = 0; i < this.entries.size(); i++)
+        {
+            Entry entry = this.entries.get(i);
+            entry.position = i;
+
+            if (entry.packages == null)
+            {
+                always.add(entry);
+                continue;
+            }
+
+            for (String p : entry.packages)
+            {
+                List<Entry> list = lists.get(p);
+
+                if (list == null)
+                {
+                    list = new ArrayList<>();
+                    lists.put(p, list);
+                }
+
+                list.add(entry);
+            }
+        }
+
+        Map<String, Entry[]> result = new HashMap<>(lists.size() * 2);
+
+        for (Map.Entry<String, List<Entry>> e : lists.entrySet())
+        {
+            // Unindexed entries are searched too, keeping the class path order.
+            List<Entry> list = e.getValue();
+            list.addAll(always);
+            list.sort((a, b) -> Integer.compare(a.position, b.position));
+            result.put(e.getKey(), list.toArray(new Entry[list.size()]));
+        }
+
+        this.unindexed = always.toArray(new Entry[always.size()]);
+        this.packages = result;
+    }
+
+    private static Entry index (URL url, Map<String, Entry> persisted)
+    {
+        File file = toFile(url);
+
+        // Like URLClassLoader, a URL ending with a slash is a directory, even if it doesn't exist yet.
+        if (file == null || url.getPath().endsWith("/") || file.isDirectory())
+        {
+            return new Entry(url, null, 0, 0, null);
+        }
+
+        String path = file.getAbsolutePath();
+        long size = file.length();
+        long lastModified = file.lastModified();
+        Entry previous = persisted.get(path);
+
+        if (previous != null && previous.size == size && previous.lastModified == lastModified)
+        {
+            return new Entry(url, path, size, lastModified, previous.packages);
+        }
+
+        Set<String> packages = new HashSet<>();
+
+        if (file.isFile())
+        {
+            try (JarFile jar = new JarFile(file, false))
+            {
+                Enumeration<JarEntry> jarEntries = jar.entries();
+
+                while (jarEntries.hasMoreElements())
+                {
+                    String name = jarEntries.nextElement().getName();
+
+                    // Versioned entries of multi-release jars belong to the package after the version.
+                    if (name.startsWith(VERSIONS_PREFIX))
+                    {
+                        int versionEnd = name.indexOf('/', VERSIONS_PREFIX.length());
+                        name = versionEnd == -1 ? name : name.substring(versionEnd + 1);
+                    }
+
+                    int separator = name.lastIndexOf('/');
+                    packages.add(separator == -1 ? "" : name.substring(0, separator));
+                }
+            }
+            catch (IOException e)
+            {
+                JHCRLogger.fine("Could not index " + path + ": " + e.getMessage());
+                return new Entry(url, null, 0, 0, null);
+            }
+        }
+
+        return new Entry(url, path, size, lastModified, packages);
+    }
+
+    private static File toFile (URL url)
+    {
+        if (!JHCRVariables.FILE_PROTOCOL.equals(url.getProtocol()))
+        {
+            return null;
+        }
+
+        try
+        {
+            return new File(url.toURI());
+        }
+        catch (URISyntaxException | IllegalArgumentException e)
+        {
+            return new File(url.getPath());
+        }
+    }
+
+    private static Path normalize (File file)
+    {
+        return file.getAbsoluteFile().toPath().normalize();
+    }
+
+    private static Map<String, Entry> read (Path indexFile)
+    {
+        Map<String, Entry> result = new HashMap<>();
+
+        if (!Files.isRegularFile(indexFile))
+        {
+            return result;
+        }
+
+        try (BufferedReader reader = Files.newBufferedReader(indexFile, StandardCharsets.UTF_8))
+        {
+            String line;
+
+            while ((line = reader.readLine()) != null)
+            {
+                String[] fields = line.split(SEPARATOR, -1);
+
+                if (fields.length < 3)
+                {
+                    continue;
+                }
+
+                Set<String> packages = new HashSet<>(Arrays.asList(fields).subList(3, fields.length));
+                result.put(fields[0], new Entry(null, fields[0], Long.parseLong(fields[1]), Long.parseLong(fields[2]), packages));
+            }
+        }
+        catch (IOException | RuntimeException e)
+        {
+            JHCRLogger.fine("Could not read class path index " + indexFile + ": " + e.getMessage());
+            result.clear();
+        }
+
+        return result;
+    }
+
+    private synchronized void write (Path indexFile)
+    {
+        Path temp = Paths.get(indexFile.toString() + ".tmp");
+
+        try
+        {
+            if (indexFile.getParent() != null)
+            {
+                Files.createDirectories(indexFile.getParent());
+            }
+
+            try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8))
+            {
+                for (Entry entry : this.entries)
+                {
+                    if (entry.path == null)
+                    {
+                        continue;
+                    }
+
+                    writer.write(entry.path + SEPARATOR + entry.size + SEPARATOR + entry.lastModified);
+
+                    for (String p : entry.packages)
+                    {
+                        writer.write(SEPARATOR + p);
+                    }
+
+                    writer.newLine();
+                }
+            }
+
+            try
+            {
+                Files.move(temp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            catch (AtomicMoveNotSupportedException e)
+            {
+                Files.move(temp, indexFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        catch (IOException e)
+        {
+            JHCRLogger.fine("Could not write class path index " + indexFile + ": " + e.getMessage());
+        }
+    }
+}
@@ -13,15 +13,37 @@
  */
 package com.illucrum.tools.jhcr.loader;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 import java.lang.reflect.Constructor;
+import java.net.JarURLConnection;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.CodeSigner;
+import java.security.CodeSource;
+import java.security.ProtectionDomain;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.jar.JarEntry;
+import java.util.jar.Manifest;
+
+import org.apache.commons.io.IOUtils;
 
 import com.illucrum.tools.jhcr.JHCRAgent;
 import com.illucrum.tools.jhcr.logger.JHCRLogger;
+import com.illucrum.tools.jhcr.metrics.JHCREvents;
+import com.illucrum.tools.jhcr.repo.JHCRMissingRepository;
 import com.illucrum.tools.jhcr.repo.JHCRRepository;
 import com.illucrum.tools.jhcr.vars.JHCRVariables;
 
@@ -32,8 +54,28 @@ import com.illucrum.tools.jhcr.vars.JHCRVariables;
  */
 public class JHCRURLClassLoader extends URLClassLoader implements JHCRCustomLoader, JHCRVariables
 {
+    private static final int BUFFER_SIZE = 16 * 1024;
+    private static final long CUSTOM_LOADER_TIMEOUT = 2000;
+
+    private static final ThreadLocal<ByteBuffer> buffers = new ThreadLocal<ByteBuffer>()
+    {
+        @Override
+        protected ByteBuffer initialValue ()
+        {
+            return ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+    };
+
     public static ClassLoader customLoader;
-    private boolean loadAttempted = false;
+    private final AtomicBoolean loadAttempted = new AtomicBoolean();
+    private final CountDownLatch customLoaderLoaded = new CountDownLatch(1);
+    private volatile Thread customLoaderThread;
+    private final JHCRPackageIndex index = new JHCRPackageIndex();
+
+    static
+    {
+        ClassLoader.registerAsParallelCapable();
+    }
 
     /**
      * Constructs a new JHCRClassLoader for the given URLs.
@@ -57,8 +99,26 @@ public class JHCRURLClassLoader extends URLClassLoader implements JHCRCustomLoad
     @Override
     protected Class<?> loadClass (String name, boolean resolve) throws ClassNotFoundException
     {
+        if (JHCRClassLoader.parent != null && JHCRClassLoader.isPlatformClass(name))
+        {
+            Class<?> result = JHCRClassLoader.parent.loadClass(name);
+
+            if (resolve)
+            {
+                this.resolveClass(result);
+            }
+
+            return result;
+        }
+
+        if (JHCRMissingRepository.contains(name))
+        {
+            throw new ClassNotFoundException(name);
+        }
+
         JHCRLogger.finest("Loading: " + name);
 
+        // Classes already in the repository are returned without taking any lock.
         Class<?> result = JHCRRepository.get(name);
 
         if (result != null)
@@ -71,67 +131,149 @@ public class JHCRURLClassLoader extends URLClassLoader implements JHCRCustomLoad
             return result;
         }
 
-        JHCRLogger.fine("Class " + name + " not found in repository.");
+        // Taken before the class loading lock, which the loading of the custom loader could wait for.
+        this.awaitCustomLoader(name);
 
-        if (!this.loadAttempted && JHCRAgent.loaded)
+        // Classes with different names can be loaded at the same time. A thread that waited for the lock gets the class defined meanwhile from super.
+        synchronized (this.getClassLoadingLock(name))
         {
-            this.loadCustomLoader();
-        }
+            JHCRLogger.fine("Class " + name + " not found in repository.");
+            JHCREvents.commitLookupMiss(name);
 
-        if (customLoader != null && !name.contains("com.illucrum.tools.jhcr."))
-        {
-            JHCRLogger.finest("Loading with custom class loader...");
-            try
+            if (customLoader != null && !name.contains("com.illucrum.tools.jhcr."))
             {
-                result = customLoader.loadClass(name);
+                JHCRLogger.finest("Loading with custom class loader...");
+                try
+                {
+                    result = customLoader.loadClass(name);
 
-                if (result == null)
+                    if (result == null)
+                    {
+                        JHCRLogger.fine("Custom loader returned null...");
+                    }
+                }
+                catch (Exception e)
                 {
-                    JHCRLogger.fine("Custom loader returned null...");
+                    JHCRLogger.fine("Class " + name + " not loaded by custom loader.");
                 }
             }
-            catch (Exception e)
-            {
-                JHCRLogger.fine("Class " + name + " not loaded by custom loader.");
-            }
-        }
 
-        if (result == null)
-        {
-            try
+            if (result == null)
             {
-                JHCRLogger.finest("Loading with super...");
-                result = super.loadClass(name, resolve);
-                JHCRRepository.put(name, result);
+                try
+                {
+                    JHCRLogger.finest("Loading with super...");
+                    result = super.loadClass(name, resolve);
+                    JHCRRepository.put(name, result);
+                }
+                catch (ClassNotFoundException e)
+                {
+                    JHCRLogger.fine("Class " + name + " not loaded by super.");
+                }
             }
-            catch (ClassNotFoundException e)
+
+            if (result == null && JHCRClassLoader.parent != null)
             {
-                JHCRLogger.fine("Class " + name + " not loaded by super.");
+                try
+                {
+                    result = JHCRClassLoader.parent.loadClass(name);
+                }
+                catch (Exception e)
+                {
+                    JHCRLogger.fine("Class " + name + " not loaded by parent.");
+                }
             }
-        }
 
-        if (result == null && JHCRClassLoader.parent != null)
-        {
-            try
+            if (result == null)
             {
-                result = JHCRClassLoader.parent.loadClass(name);
+                JHCRMissingRepository.put(name);
+                throw new ClassNotFoundException(name);
             }
-            catch (Exception e)
+            else if (resolve)
             {
-                JHCRLogger.fine("Class " + name + " not loaded by parent.");
+                this.resolveClass(result);
             }
+
+            return result;
         }
+    }
 
-        if (result == null)
+    @Override
+    protected Class<?> findClass (String name) throws ClassNotFoundException
+    {
+        if (!this.index.isReady())
         {
-            throw new ClassNotFoundException();
+            return super.findClass(name);
         }
-        else if (resolve)
+
+        JHCRPackageIndex.Resource resource = this.index.findResource(name.replace('.', '/') + FILE_EXTENSION);
+
+        if (resource == null)
+        {
+            throw new ClassNotFoundException(name);
+        }
+
+        try
+        {
+            return this.defineClass(name, resource);
+        }
+        catch (IOException e)
+        {
+            throw new ClassNotFoundException(name, e);
+        }
+    }
+
+    @Override
+    public URL findResource (String name)
+    {
+        if (!this.index.isReady())
+        {
+            return super.findResource(name);
+        }
+
+        JHCRPackageIndex.Resource resource = this.index.findResource(name);
+
+        return resource == null ? null : resource.url;
+    }
+
+    /**
+     * Builds the index of the packages in the class path in a background thread, unless the <code>jhcr.loader.index</code> preference is
+     * <code>false</code>. Until the index is built, the whole class path is searched.
+     * 
+     * @see com.illucrum.tools.jhcr.loader.JHCRPackageIndex
+     */
+    public void buildIndex ()
+    {
+        if ("false".equals(JHCRAgent.preferences.get("jhcr.loader.index")))
         {
-            this.resolveClass(result);
+            return;
         }
 
-        return result;
+        String indexFile = JHCRAgent.preferences.get("jhcr.loader.indexFile");
+        Thread thread = new Thread(() -> this.index.build(indexFile == null ? null : Paths.get(indexFile)), "JHCR class path index");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * @return true once the index of the class path is built
+     */
+    boolean isIndexReady ()
+    {
+        return this.index.isReady();
+    }
+
+    /**
+     * Reads a rewritten class path jar again, so the classes not loaded yet are defined from its new contents, and the classes it now contains are no longer
+     * remembered as missing.
+     * 
+     * @param jar
+     *            the jar
+     */
+    public void refreshJar (File jar)
+    {
+        this.index.refresh(jar);
+        JHCRMissingRepository.clear();
     }
 
     /**
@@ -152,6 +294,23 @@ public class JHCRURLClassLoader extends URLClassLoader implements JHCRCustomLoad
         return super.defineClass(name, bytecode, off, len);
     }
 
+    /**
+     * Just a wrapper for the {@link java.lang.ClassLoader#defineClass(String, ByteBuffer, ProtectionDomain)}
+     * 
+     * @param name
+     *            Name of the class to be defined.
+     * @param bytecode
+     *            Bytecode of the class to be defined, from its position to its limit
+     * @param protectionDomain
+     *            The protection domain of the class, may be null
+     * @return the class returned by {@link java.lang.ClassLoader#defineClass(String, ByteBuffer, ProtectionDomain)}
+     */
+    @Override
+    public Class<?> defineClassWrapper (String name, ByteBuffer bytecode, ProtectionDomain protectionDomain)
+    {
+        return super.defineClass(name, bytecode, protectionDomain);
+    }
+
     /**
      * This method converts the given string to a URL, and calls {@link #addURL(URL)}.
      * 
@@ -174,7 +333,10 @@ public class JHCRURLClassLoader extends URLClassLoader implements JHCRCustomLoad
                 uri = new URI(PROTOCOL + jarName);
             }
 
-            this.addURL(uri.toURL());
+            URL url = uri.toURL();
+            this.addURL(url);
+            this.index.add(url);
+            JHCRMissingRepository.clear();
         }
         catch (Exception e)
         {
@@ -182,9 +344,201 @@ public class JHCRURLClassLoader extends URLClassLoader implements JHCRCustomLoad
         }
     }
 
+    private Class<?> defineClass (String name, JHCRPackageIndex.Resource resource) throws IOException
+    {
+        int separator = name.lastIndexOf('.');
+
+        if (FILE_PROTOCOL.equals(resource.url.getProtocol()))
+        {
+            if (separator != -1)
+            {
+                this.definePackageIfAbsent(name.substring(0, separator), null, resource.base);
+            }
+
+            // The buffer is taken while the class is defined, a class defined by a transformer meanwhile reads into a buffer of its own.
+            ByteBuffer buffer = buffers.get();
+            buffers.set(null);
+
+            try
+            {
+                buffer = readFile(resource.url, buffer);
+                return this.defineClass(name, buffer, new CodeSource(resource.base, (CodeSigner[]) null));
+            }
+            finally
+            {
+                buffers.set(buffer);
+            }
+        }
+
+        URLConnection connection = resource.url.openConnection();
+        long length = connection.getContentLengthLong();
+        byte[] bytecode;
+
+        try (InputStream input = connection.getInputStream())
+        {
+            // Jar entries are usually compressed, so they are read straight into an array of their size.
+            bytecode = length < 0 ? IOUtils.toByteArray(input) : IOUtils.toByteArray(input, length);
+        }
+
+        Manifest manifest = null;
+        CodeSigner[] signers = null;
+
+        if (connection instanceof JarURLConnection)
+        {
+            JarURLConnection jarConnection = (JarURLConnection) connection;
+            JarEntry entry = jarConnection.getJarEntry();
+            manifest = jarConnection.getManifest();
+            // Signers are only known once the entry has been read.
+            signers = entry == null ? null : entry.getCodeSigners();
+        }
+
+        if (separator != -1)
+        {
+            this.definePackageIfAbsent(name.substring(0, separator), manifest, resource.base);
+        }
+
+        return this.defineClass(name, bytecode, 0, bytecode.length, new CodeSource(resource.base, signers));
+    }
+
+    /**
+     * Reads a class file into a direct buffer. The buffer of the current thread is reused for every class it defines, unless it is still in use by a class
+     * being defined, e.g. when a transformer loads another class.
+     * 
+     * <p>
+     * Class files are not memory mapped, as the ones in watched directories are rewritten by compilers, and accessing a truncated mapped file faults.
+     * </p>
+     */
+    private static ByteBuffer readFile (URL url, ByteBuffer buffer) throws IOException
+    {
+        Path path;
+
+        try
+        {
+            path = Paths.get(url.toURI());
+        }
+        catch (URISyntaxException e)
+        {
+            throw new IOException(e);
+        }
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+        {
+            int size = (int) channel.size();
+            if (buffer == null)
+            {
+                buffer = ByteBuffer.allocateDirect(Math.max(size, BUFFER_SIZE));
+            }
+            else if (buffer.capacity() < size)
+            {
+                buffer = ByteBuffer.allocateDirect(Math.max(size, buffer.capacity() * 2));
+            }
+
+            buffer.clear();
+            buffer.limit(size);
+
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0)
+            {
+            }
+
+            buffer.flip();
+
+            return buffer;
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    private void definePackageIfAbsent (String packageName, Manifest manifest, URL base)
+    {
+        if (this.getPackage(packageName) != null)
+        {
+            return;
+        }
+
+        try
+        {
+            if (manifest == null)
+            {
+                this.definePackage(packageName, null, null, null, null, null, null, null);
+            }
+            else
+            {
+                this.definePackage(packageName, manifest, base);
+            }
+        }
+        catch (IllegalArgumentException e)
+        {
+            // Defined by another thread meanwhile.
+        }
+    }
+
+    /**
+     * Loads the custom loader once the agent is loaded. Other threads wait until it is loaded, so no application class is defined by this loader instead of
+     * the custom one. The loading thread itself goes on, as the custom loader needs classes loaded too.
+     * 
+     * <p>
+     * Other threads wait at most {@value #CUSTOM_LOADER_TIMEOUT}ms. A thread may be initializing a class the loading thread needs, and would deadlock
+     * startup if it waited for good, so it loads the class without the custom loader instead.
+     * </p>
+     */
+    private void awaitCustomLoader (String name)
+    {
+        if (!JHCRAgent.loaded || this.customLoaderLoaded.getCount() == 0)
+        {
+            return;
+        }
+
+        if (this.loadAttempted.compareAndSet(false, true))
+        {
+            this.customLoaderThread = Thread.currentThread();
+
+            try
+            {
+                this.loadCustomLoader();
+            }
+            finally
+            {
+                this.customLoaderLoaded.countDown();
+            }
+
+            return;
+        }
+
+        if (this.customLoaderThread == Thread.currentThread())
+        {
+            return;
+        }
+
+        // The wait is bounded, the loading thread may need a class whose initialization this thread holds.
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(CUSTOM_LOADER_TIMEOUT);
+        boolean interrupted = false;
+        boolean loaded;
+
+        while (true)
+        {
+            try
+            {
+                loaded = this.customLoaderLoaded.await(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                break;
+            }
+            catch (InterruptedException e)
+            {
+                interrupted = true;
+            }
+        }
+
+        if (interrupted)
+        {
+            Thread.currentThread().interrupt();
+        }
+
+        if (!loaded)
+        {
+            JHCRLogger.warning("Custom loader still loading after " + CUSTOM_LOADER_TIMEOUT + "ms, loading " + name + " without it.");
+        }
+    }
+
     private void loadCustomLoader ()
     {
-        this.loadAttempted = true;
         String customLoaderName = JHCRAgent.preferences.get("jhcr.custom.loader");
         if (customLoaderName != null)
         {
@@ -196,6 +550,7 @@ public class JHCRURLClassLoader extends URLClassLoader implements JHCRCustomLoad
                 if (ClassLoader.class.isInstance(customLoaderObject))
                 {
                     customLoader = (ClassLoader) customLoaderObject;
+                    JHCRMissingRepository.clear();
                     JHCRLogger.fine("Custom class loader loaded");
                 }
                 else
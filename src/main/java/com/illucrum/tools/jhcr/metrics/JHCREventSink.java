@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2025, Illucrum LLC
+ *
+ * This file is part of JHCR.
+ *
+ * JHCR is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * JHCR is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with JHCR. If not, see <https://www.gnu.org/licenses/gpl-3.0.html>.
+ */
+package com.illucrum.tools.jhcr.metrics;
+
+/**
+ * Receiver of the events emitted by JHCR. Events with a duration are started with a <code>begin</code> method, whose result is passed back to the
+ * matching <code>commit</code> method. A null result means the event is not recorded.
+ * 
+ * @see com.illucrum.tools.jhcr.metrics.JHCREvents
+ * 
+ * @author Szymon Kokot
+ */
+public interface JHCREventSink
+{
+    Object beginTransform ();
+
+    void commitTransform (Object event, String className, int originalSize, int transformedSize);
+
+    void commitLookupMiss (String className);
+
+    Object beginRedefine ();
+
+    void commitRedefine (Object event, int classCount, boolean success);
+
+    void commitOverride (String className, String overrideName);
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2025, Illucrum LLC
+ *
+ * This file is part of JHCR.
+ *
+ * JHCR is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * JHCR is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with JHCR. If not, see <https://www.gnu.org/licenses/gpl-3.0.html>.
+ */
+package com.illucrum.tools.jhcr.metrics;
+
+import com.illucrum.tools.jhcr.JHCRAgent;
+import com.illucrum.tools.jhcr.logger.JHCRLogger;
+
+/**
+ * Static entry point for the events emitted by JHCR.
+ * 
+ * <p>
+ * Events are disabled by default. When the <code>jhcr.jfr</code> preference is <code>true</code>, they are emitted as Java Flight Recorder events by the
+ * sink in the <code>com.illucrum.tools.jhcr.jfr</code> package. That package is loaded reflectively, as it isn't part of the Java 8 build. While disabled,
+ * every method returns after a single field check.
+ * </p>
+ * 
+ * @author Szymon Kokot
+ */
+public class JHCREvents
+{
+    private static final String SINK_NAME = "com.illucrum.tools.jhcr.jfr.JHCRFlightRecorderSink";
+
+    private static volatile JHCREventSink sink = null;
+
+    /**
+     * Installs the Java Flight Recorder sink, if the <code>jhcr.jfr</code> preference is <code>true</code>.
+     */
+    public static void register ()
+    {
+        if (!"true".equals(JHCRAgent.preferences.get("jhcr.jfr")))
+        {
+            return;
+        }
+
+        try
+        {
+            sink = (JHCREventSink) Class.forName(SINK_NAME).getDeclaredConstructor().newInstance();
+            JHCRLogger.info("Flight Recorder events enabled.");
+        }
+        catch (Throwable e)
+        {
+            JHCRLogger.warning("Flight Recorder events are not available: " + e);
+        }
+    }
+
+    /**
+     * Starts a transform event.
+     * 
+     * @return the event to commit, or null if it's not recorded
+     */
+    public static Object beginTransform ()
+    {
+        JHCREventSink sink = JHCREvents.sink;
+
+        return sink == null ? null : sink.beginTransform();
+    }
+
+    /**
+     * Commits a transform event.
+     * 
+     * @param event
+     *            the result of {@link #beginTransform()}
+     * @param className
+     *            the internal name of the transformed class
+     * @param originalSize
+     *            the size of the original bytecode
+     * @param transformedSize
+     *            the size of the transformed bytecode
+     */
+    public static void commitTransform (Object event, String className, int originalSize, int transformedSize)
+    {
+        if (event != null)
+        {
+            sink.commitTransform(event, className, originalSize, transformedSize);
+        }
+    }
+
+    /**
+     * Emits a repository lookup miss event.
+     * 
+     * @param className
+     *            the binary name of the class not found
+     */
+    public static void commitLookupMiss (String className)
+    {
+        JHCREventSink sink = JHCREvents.sink;
+
+        if (sink != null)
+        {
+            sink.commitLookupMiss(className);
+        }
+    }
+
+    /**
+     * Starts a redefine event.
+     * 
+     * @return the event to commit, or null if it's not recorded
+     */
+    public static Object beginRedefine ()
+    {
+        JHCREventSink sink = JHCREvents.sink;
+
+        return sink == null ? null : sink.beginRedefine();
+    }
+
+    /**
+     * Commits a redefine event.
+     * 
+     * @param event
+     *            the result of {@link #beginRedefine()}
+     * @param classCount
+     *            the number of classes passed to {@link java.lang.instrument.Instrumentation#redefineClasses(java.lang.instrument.ClassDefinition...)}
+     * @param success
+     *            false if the redefinition failed
+     */
+    public static void commitRedefine (Object event, int classCount, boolean success)
+    {
+        if (event != null)
+        {
+            sink.commitRedefine(event, classCount, success);
+        }
+    }
+
+    /**
+     * Emits an override event.
+     * 
+     * @param className
+     *            the binary name of the overridden class
+     * @param overrideName
+     *            the binary name of the defined override class
+     */
+    public static void commitOverride (String className, String overrideName)
+    {
+        JHCREventSink sink = JHCREvents.sink;
+
+        if (sink != null)
+        {
+            sink.commitOverride(className, overrideName);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2025, Illucrum LLC
+ *
+ * This file is part of JHCR.
+ *
+ * JHCR is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * JHCR is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with JHCR. If not, see <https://www.gnu.org/licenses/gpl-3.0.html>.
+ */
+package com.illucrum.tools.jhcr.metrics;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free latency histogram with power of two buckets, in microseconds.
+ * 
+ * @author Szymon Kokot
+ */
+public class JHCRHistogram
+{
+    private static final int BUCKETS = 64;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder total = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Constructs a new empty {@link com.illucrum.tools.jhcr.metrics.JHCRHistogram}.
+     */
+    public JHCRHistogram ()
+    {
+        for (int i = 0; i < BUCKETS; i++)
+        {
+            this.buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Records a duration.
+     * 
+     * @param nanos
+     *            the duration in nanoseconds
+     */
+    public void record (long nanos)
+    {
+        long micros = Math.max(nanos, 0) / 1000;
+
+        // Bucket i holds durations from 2^(i-1) to 2^i - 1 microseconds, bucket 0 holds the ones under a microsecond.
+        this.buckets[BUCKETS - Long.numberOfLeadingZeros(micros)].increment();
+        this.count.increment();
+        this.total.add(micros);
+        this.max.accumulate(micros);
+    }
+
+    /**
+     * @return the number of recorded durations
+     */
+    public long getCount ()
+    {
+        return this.count.sum();
+    }
+
+    /**
+     * @return the mean of the recorded durations, in microseconds
+     */
+    public long getMean ()
+    {
+        long count = this.count.sum();
+
+        return count == 0 ? 0 : this.total.sum() / count;
+    }
+
+    /**
+     * @return the longest recorded duration, in microseconds
+     */
+    public long getMax ()
+    {
+        return this.max.get();
+    }
+
+    /**
+     * Returns an upper bound of the given percentile, precise to a power of two.
+     * 
+     * @param percentile
+     *            the percentile, between 0 and 100
+     * @return the upper bound of the bucket holding the percentile, in microseconds
+     */
+    public long getPercentile (double percentile)
+    {
+        long[] counts = new long[BUCKETS];
+        long count = 0;
+
+        for (int i = 0; i < BUCKETS; i++)
+        {
+            counts[i] = this.buckets[i].sum();
+            count += counts[i];
+        }
+
+        long rank = (long) Math.ceil(count * percentile / 100);
+        long seen = 0;
+
+        for (int i = 0; i < BUCKETS; i++)
+        {
+            seen += counts[i];
+
+            if (seen >= rank && counts[i] > 0)
+            {
+                return Math.min(i == 0 ? 0 : (1L << i) - 1, this.max.get());
+            }
+        }
+
+        return 0;
+    }
+
+    /**
+     * Clears all recorded durations.
+     */
+    public void reset ()
+    {
+        for (LongAdder bucket : this.buckets)
+        {
+            bucket.reset();
+        }
+
+        this.count.reset();
+        this.total.reset();
+        this.max.reset();
+    }
+}
@@ -0,0 +1,359 @@
+/*
+ * Copyright (C) 2025, Illucrum LLC
+ *
+ * This file is part of JHCR.
+ *
+ * JHCR is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * JHCR is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with JHCR. If not, see <https://www.gnu.org/licenses/gpl-3.0.html>.
+ */
+package com.illucrum.tools.jhcr.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.ObjectName;
+
+import com.illucrum.tools.jhcr.JHCRAgent;
+import com.illucrum.tools.jhcr.logger.JHCRLogger;
+import com.illucrum.tools.jhcr.repo.JHCRGenerationRepository;
+
+/**
+ * Runtime counters and timings of JHCR, exposed as the <code>com.illucrum.tools.jhcr:type=JHCRMetrics</code> MBean.
+ * 
+ * <p>
+ * Metrics are only recorded when the <code>jhcr.metrics</code> preference is <code>true</code>. Recording is lock-free, so it can be called from the class
+ * loading and constructor hot paths.
+ * </p>
+ * 
+ * @author Szymon Kokot
+ */
+public class JHCRMetrics implements JHCRMetricsMBean
+{
+    public static final String OBJECT_NAME = "com.illucrum.tools.jhcr:type=JHCRMetrics";
+
+    private static final LongAdder transformed = new LongAdder();
+    private static final LongAdder skipped = new LongAdder();
+    private static final LongAdder repositoryHits = new LongAdder();
+    private static final LongAdder repositoryMisses = new LongAdder();
+    private static final LongAdder customRepositoryHits = new LongAdder();
+    private static final LongAdder customRepositoryMisses = new LongAdder();
+    private static final LongAdder constructions = new LongAdder();
+    private static final LongAdder redefinitions = new LongAdder();
+    private static final LongAdder overrides = new LongAdder();
+    private static final LongAdder overrideFailures = new LongAdder();
+    private static final LongAdder unchangedReloads = new LongAdder();
+    private static final JHCRHistogram transformTime = new JHCRHistogram();
+    private static final JHCRHistogram scanTime = new JHCRHistogram();
+
+    private static volatile boolean enabled = false;
+
+    /**
+     * Enables the metrics and registers the MBean in the platform MBean server, if the <code>jhcr.metrics</code> preference is <code>true</code>.
+     */
+    public static void register ()
+    {
+        if (!"true".equals(JHCRAgent.preferences.get("jhcr.metrics")))
+        {
+            return;
+        }
+
+        enabled = true;
+
+        try
+        {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new JHCRMetrics(), new ObjectName(OBJECT_NAME));
+            JHCRLogger.info("Metrics registered: " + OBJECT_NAME);
+        }
+        catch (Exception e)
+        {
+            JHCRLogger.warning("Could not register metrics: " + e);
+        }
+    }
+
+    /**
+     * @return true if metrics are recorded
+     */
+    public static boolean isEnabled ()
+    {
+        return enabled;
+    }
+
+    /**
+     * Records a class transformed by {@link com.illucrum.tools.jhcr.JHCRTransformer}.
+     * 
+     * @param nanos
+     *            the time the transformation took, in nanoseconds
+     */
+    public static void recordTransform (long nanos)
+    {
+        if (enabled)
+        {
+            transformed.increment();
+            transformTime.record(nanos);
+        }
+    }
+
+    /**
+     * Records a class left untouched by {@link com.illucrum.tools.jhcr.JHCRTransformer}.
+     */
+    public static void recordSkip ()
+    {
+        if (enabled)
+        {
+            skipped.increment();
+        }
+    }
+
+    /**
+     * Records a lookup in {@link com.illucrum.tools.jhcr.repo.JHCRRepository}.
+     * 
+     * @param hit
+     *            true if a class was found
+     */
+    public static void recordRepositoryLookup (boolean hit)
+    {
+        if (enabled)
+        {
+            (hit ? repositoryHits : repositoryMisses).increment();
+        }
+    }
+
+    /**
+     * Records a lookup in {@link com.illucrum.tools.jhcr.repo.JHCRCustomRepository}.
+     * 
+     * @param hit
+     *            true if a class was found
+     */
+    public static void recordCustomRepositoryLookup (boolean hit)
+    {
+        if (enabled)
+        {
+            (hit ? customRepositoryHits : customRepositoryMisses).increment();
+        }
+    }
+
+    /**
+     * Records an object constructed through {@link com.illucrum.tools.jhcr.loader.JHCRConstructor}.
+     */
+    public static void recordConstruction ()
+    {
+        if (enabled)
+        {
+            constructions.increment();
+        }
+    }
+
+    /**
+     * Records a class redefined by {@link com.illucrum.tools.jhcr.watcher.JHCROverrider}.
+     */
+    public static void recordRedefinition ()
+    {
+        if (enabled)
+        {
+            redefinitions.increment();
+        }
+    }
+
+    /**
+     * Records a class overridden by {@link com.illucrum.tools.jhcr.watcher.JHCROverrider}.
+     */
+    public static void recordOverride ()
+    {
+        if (enabled)
+        {
+            overrides.increment();
+        }
+    }
+
+    /**
+     * Records a class that could neither be redefined nor overridden.
+     */
+    public static void recordOverrideFailure ()
+    {
+        if (enabled)
+        {
+            overrideFailures.increment();
+        }
+    }
+
+    /**
+     * Records a changed class file skipped because its content is the one applied last.
+     */
+    public static void recordUnchangedReload ()
+    {
+        if (enabled)
+        {
+            unchangedReloads.increment();
+        }
+    }
+
+    /**
+     * Records a scan of the watched directory.
+     * 
+     * @param nanos
+     *            the time the scan took, in nanoseconds
+     */
+    public static void recordScan (long nanos)
+    {
+        if (enabled)
+        {
+            scanTime.record(nanos);
+        }
+    }
+
+    @Override
+    public long getTransformedClasses ()
+    {
+        return transformed.sum();
+    }
+
+    @Override
+    public long getSkippedClasses ()
+    {
+        return skipped.sum();
+    }
+
+    @Override
+    public long getTransformTimeMean ()
+    {
+        return transformTime.getMean();
+    }
+
+    @Override
+    public long getTransformTimeMax ()
+    {
+        return transformTime.getMax();
+    }
+
+    @Override
+    public long getTransformTimeP50 ()
+    {
+        return transformTime.getPercentile(50);
+    }
+
+    @Override
+    public long getTransformTimeP99 ()
+    {
+        return transformTime.getPercentile(99);
+    }
+
+    @Override
+    public long getRepositoryHits ()
+    {
+        return repositoryHits.sum();
+    }
+
+    @Override
+    public long getRepositoryMisses ()
+    {
+        return repositoryMisses.sum();
+    }
+
+    @Override
+    public long getCustomRepositoryHits ()
+    {
+        return customRepositoryHits.sum();
+    }
+
+    @Override
+    public long getCustomRepositoryMisses ()
+    {
+        return customRepositoryMisses.sum();
+    }
+
+    @Override
+    public long getConstructions ()
+    {
+        return constructions.sum();
+    }
+
+    @Override
+    public long getRedefinitions ()
+    {
+        return redefinitions.sum();
+    }
+
+    @Override
+    public long getOverrides ()
+    {
+        return overrides.sum();
+    }
+
+    @Override
+    public long getOverrideFailures ()
+    {
+        return overrideFailures.sum();
+    }
+
+    @Override
+    public long getUnchangedReloads ()
+    {
+        return unchangedReloads.sum();
+    }
+
+    @Override
+    public long getScans ()
+    {
+        return scanTime.getCount();
+    }
+
+    @Override
+    public long getScanTimeMean ()
+    {
+        return scanTime.getMean();
+    }
+
+    @Override
+    public long getScanTimeMax ()
+    {
+        return scanTime.getMax();
+    }
+
+    @Override
+    public long getScanTimeP99 ()
+    {
+        return scanTime.getPercentile(99);
+    }
+
+    @Override
+    public long getLiveGenerations ()
+    {
+        return JHCRGenerationRepository.getLiveCount();
+    }
+
+    @Override
+    public long getUnloadedGenerations ()
+    {
+        return JHCRGenerationRepository.getUnloadedCount();
+    }
+
+    @Override
+    public long getUnloadedGenerationMetaspace ()
+    {
+        return JHCRGenerationRepository.getUnloadedMetaspace();
+    }
+
+    @Override
+    public String generationReport ()
+    {
+        return JHCRGenerationRepository.staticToString();
+    }
+
+    @Override
+    public void reset ()
+    {
+        for (LongAdder counter : new LongAdder[] { transformed, skipped, repositoryHits, repositoryMisses, customRepositoryHits, customRepositoryMisses,
+                constructions, redefinitions, overrides, overrideFailures, unchangedReloads })
+        {
+            counter.reset();
+        }
+
+        transformTime.reset();
+        scanTime.reset();
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2025, Illucrum LLC
+ *
+ * This file is part of JHCR.
+ *
+ * JHCR is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * JHCR is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with JHCR. If not, see <https://www.gnu.org/licenses/gpl-3.0.html>.
+ */
+package com.illucrum.tools.jhcr.metrics;
+
+/**
+ * Management interface of {@link com.illucrum.tools.jhcr.metrics.JHCRMetrics}. Durations are in microseconds.
+ * 
+ * @author Szymon Kokot
+ */
+public interface JHCRMetricsMBean
+{
+    long getTransformedClasses ();
+
+    long getSkippedClasses ();
+
+    long getTransformTimeMean ();
+
+    long getTransformTimeMax ();
+
+    long getTransformTimeP50 ();
+
+    long getTransformTimeP99 ();
+
+    long getRepositoryHits ();
+
+    long getRepositoryMisses ();
+
+    long getCustomRepositoryHits ();
+
+    long getCustomRepositoryMisses ();
+
+    long getConstructions ();
+
+    long getRedefinitions ();
+
+    long getOverrides ();
+
+    long getOverrideFailures ();
+
+    long getUnchangedReloads ();
+
+    long getScans ();
+
+    long getScanTimeMean ();
+
+    long getScanTimeMax ();
+
+    long getScanTimeP99 ();
+
+    long getLiveGenerations ();
+
+    long getUnloadedGenerations ();
+
+    long getUnloadedGenerationMetaspace ();
+
+    /**
+     * @return the report of the metaspace used by each live override generation, and reclaimed by the unloaded ones
+     */
+    String generationReport ();
+
+    /**
+     * Clears all counters and histograms.
+     */
+    void reset ();
+}
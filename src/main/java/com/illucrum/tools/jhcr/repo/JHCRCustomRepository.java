@@ -13,21 +13,27 @@
  */
 package com.illucrum.tools.jhcr.repo;
 
-import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
+import com.illucrum.tools.jhcr.loader.JHCRCustomLoader;
 import com.illucrum.tools.jhcr.logger.JHCRLogger;
+import com.illucrum.tools.jhcr.metrics.JHCRMetrics;
 
 /**
  * JHCRCustomRepository is a static class that is meant to store all the classes that could be reloaded in the future, and were loaded by a custom class loader.
  * 
  * Each class stored is identified by it's defining class loader object and the class' fully qualified name.
  * 
+ * <p>
+ * The classes of each loader are kept in a shard held by the loader itself (see {@link com.illucrum.tools.jhcr.loader.JHCRCustomLoader#getRepositoryShard()}),
+ * so lookups for different loaders never contend, and the classes of an unloaded loader go away with it. Classes of loaders without a shard are not stored,
+ * as only instrumented loaders look them up.
+ * </p>
+ * 
  * @author Szymon Kokot
  */
 public class JHCRCustomRepository
 {
-    private static final WeakHashMap<ClassLoader, WeakHashMap<String, Class<?>>> classes = new WeakHashMap<>();
-
     /**
      * This method calls {@link #put(String, Class)} with <code> clazz.getName() </code> as class name.
      * 
@@ -36,7 +42,7 @@ public class JHCRCustomRepository
      * @param clazz
      *            the class to be stored
      */
-    public static synchronized void put (Class<?> clazz)
+    public static void put (Class<?> clazz)
     {
         JHCRCustomRepository.put(clazz.getName(), clazz);
     }
@@ -49,23 +55,59 @@ public class JHCRCustomRepository
      * @param clazz
      *            the class to be stored
      */
-    public static synchronized void put (String className, Class<?> clazz)
+    public static void put (String className, Class<?> clazz)
     {
-        ClassLoader loader = clazz.getClassLoader();
+        JHCRCustomRepository.put(clazz.getClassLoader(), className, clazz);
+    }
 
-        JHCRLogger.finer("Saving custom " + className + " for " + loader + "...");
+    /**
+     * It stores a class given a name, for a loader other than its defining class loader. Used for classes defined by a
+     * {@link com.illucrum.tools.jhcr.loader.JHCRGenerationLoader}, which are looked up by the loader of the original class.
+     * 
+     * @param loader
+     *            the class loader looking up the class
+     * @param className
+     *            the canonical name of the class to be stored.
+     * @param clazz
+     *            the class to be stored
+     */
+    public static void put (ClassLoader loader, String className, Class<?> clazz)
+    {
+        ConcurrentHashMap<String, Class<?>> shard = getShard(loader);
 
-        WeakHashMap<String, Class<?>> classesMap = classes.get(loader);
+        if (shard == null)
+        {
+            return;
+        }
 
-        if (classesMap == null)
+        JHCRLogger.finer("Saving custom " + className + " for " + loader + "...");
+        shard.put(className, clazz);
+    }
+
+    /**
+     * Stores a class returned by the <code>loadClass</code> method of an instrumented loader, only if that loader defined it and nothing is stored under
+     * the name yet. Classes found by the parent are left to the parent.
+     * 
+     * @param clazz
+     *            the class returned, may be null
+     * @param loader
+     *            the instrumented loader
+     * @param className
+     *            the name the class was loaded with
+     */
+    public static void record (Class<?> clazz, ClassLoader loader, String className)
+    {
+        if (clazz == null || clazz.getClassLoader() != loader)
         {
-            classesMap = new WeakHashMap<>();
-            classesMap.put(className, clazz);
-            classes.put(loader, classesMap);
             return;
         }
 
-        classesMap.put(className, clazz);
+        ConcurrentHashMap<String, Class<?>> shard = getShard(loader);
+
+        if (shard != null && shard.putIfAbsent(className, clazz) == null)
+        {
+            JHCRLogger.finer("Saved custom " + className + " for " + loader + ".");
+        }
     }
 
     /**
@@ -77,11 +119,19 @@ public class JHCRCustomRepository
      *            the name of the class to be returned
      * @return returns the class or null if none is found
      */
-    public static synchronized Class<?> get (ClassLoader loader, String className)
+    public static Class<?> get (ClassLoader loader, String className)
     {
         JHCRLogger.finer("Retrieving custom " + className + " for " + loader + "...");
-        WeakHashMap<String, Class<?>> classesMap = classes.get(loader);
+        ConcurrentHashMap<String, Class<?>> shard = getShard(loader);
 
-        return classesMap == null ? null : classesMap.get(className);
+        Class<?> clazz = shard == null ? null : shard.get(className);
+        JHCRMetrics.recordCustomRepositoryLookup(clazz != null);
+
+        return clazz;
+    }
+
+    private static ConcurrentHashMap<String, Class<?>> getShard (ClassLoader loader)
+    {
+        return loader instanceof JHCRCustomLoader ? ((JHCRCustomLoader) loader).getRepositoryShard() : null;
     }
 }
@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2025, Illucrum LLC
+ *
+ * This file is part of JHCR.
+ *
+ * JHCR is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * JHCR is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with JHCR. If not, see <https://www.gnu.org/licenses/gpl-3.0.html>.
+ */
+package com.illucrum.tools.jhcr.repo;
+
+import java.net.URL;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.ProtectionDomain;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+
+import com.illucrum.tools.jhcr.JHCRAgent;
+import com.illucrum.tools.jhcr.loader.JHCRURLClassLoader;
+import com.illucrum.tools.jhcr.logger.JHCRLogger;
+
+/**
+ * JHCRDigestRepository is a static class that remembers a digest of the last bytecode applied for each reloadable class, so class files rewritten with the
+ * same content are not reloaded.
+ * 
+ * <p>
+ * Classes are recorded when they are first transformed, and again after each reload. With <code>jhcr.reload.ignoreDebug=true</code> the digest is
+ * computed without the debug attributes, so changes to line numbers or local variable names alone are not reloaded either.
+ * </p>
+ * 
+ * @author Szymon Kokot
+ */
+public class JHCRDigestRepository
+{
+    private static final String JAR_EXTENSION = ".jar";
+
+    private static final ConcurrentHashMap<String, byte[]> digests = new ConcurrentHashMap<>();
+
+    private static final ThreadLocal<MessageDigest> messageDigests = new ThreadLocal<MessageDigest>()
+    {
+        @Override
+        protected MessageDigest initialValue ()
+        {
+            try
+            {
+                return MessageDigest.getInstance("SHA-1");
+            }
+            catch (NoSuchAlgorithmException e)
+            {
+                throw new IllegalStateException(e);
+            }
+        }
+    };
+
+    private static volatile Boolean ignoreDebug = null;
+
+    /**
+     * Computes the digest of a class file, without its debug attributes if <code>jhcr.reload.ignoreDebug</code> is set.
+     * 
+     * @param bytecode
+     *            the class file
+     * @return the digest
+     */
+    public static byte[] digest (byte[] bytecode)
+    {
+        if (isIgnoreDebug())
+        {
+            // A writer without a reader rebuilds the constant pool, so it doesn't keep the names only used by debug attributes either.
+            ClassWriter writer = new ClassWriter(0);
+            new ClassReader(bytecode).accept(writer, ClassReader.SKIP_DEBUG);
+            bytecode = writer.toByteArray();
+        }
+
+        MessageDigest digest = messageDigests.get();
+        digest.reset();
+
+        return digest.digest(bytecode);
+    }
+
+    /**
+     * Checks if a class being loaded may be reloaded later. Classes are reloaded through the
+     * {@link com.illucrum.tools.jhcr.loader.JHCRURLClassLoader}, and classes are recorded by name, so classes of other loaders are not recorded. Neither
+     * are classes from jars, only class files in directories are reloaded.
+     * 
+     * @param loader
+     *            the loader defining the class
+     * @param protectionDomain
+     *            the protection domain of the class, may be null
+     * @return false if the class isn't defined by the JHCR loader, or comes from a jar
+     */
+    public static boolean isReloadable (ClassLoader loader, ProtectionDomain protectionDomain)
+    {
+        if (!(loader instanceof JHCRURLClassLoader))
+        {
+            return false;
+        }
+
+        CodeSource codeSource = protectionDomain == null ? null : protectionDomain.getCodeSource();
+        URL location = codeSource == null ? null : codeSource.getLocation();
+
+        return location == null || !location.getPath().endsWith(JAR_EXTENSION);
+    }
+
+    /**
+     * Stores the digest of the bytecode applied for a class.
+     * 
+     * @param className
+     *            the internal name of the class
+     * @param digest
+     *            the digest, as returned by {@link #digest(byte[])}
+     */
+    public static void put (String className, byte[] digest)
+    {
+        digests.put(className, digest);
+    }
+
+    /**
+     * Checks if the given digest is the one of the bytecode applied for a class.
+     * 
+     * @param className
+     *            the internal name of the class
+     * @param digest
+     *            the digest, as returned by {@link #digest(byte[])}
+     * @return true if the class would be reloaded with the same bytecode
+     */
+    public static boolean isUnchanged (String className, byte[] digest)
+    {
+        byte[] current = digests.get(className);
+
+        return current != null && MessageDigest.isEqual(current, digest);
+    }
+
+    private static boolean isIgnoreDebug ()
+    {
+        if (ignoreDebug == null)
+        {
+            ignoreDebug = JHCRAgent.preferences != null && "true".equals(JHCRAgent.preferences.get("jhcr.reload.ignoreDebug"));
+            JHCRLogger.finer("Ignoring debug attributes on reload: " + ignoreDebug);
+        }
+
+        return ignoreDebug;
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2025, Illucrum LLC
+ *
+ * This file is part of JHCR.
+ *
+ * JHCR is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * JHCR is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with JHCR. If not, see <https://www.gnu.org/licenses/gpl-3.0.html>.
+ */
+package com.illucrum.tools.jhcr.repo;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.illucrum.tools.jhcr.loader.JHCRGenerationLoader;
+import com.illucrum.tools.jhcr.logger.JHCRLogger;
+
+/**
+ * JHCRGenerationRepository is a static class that keeps track of the {@link com.illucrum.tools.jhcr.loader.JHCRGenerationLoader}s defining override
+ * classes, without keeping them alive, and of the ones already unloaded.
+ * 
+ * <p>
+ * The metaspace a generation uses is measured as the growth of the used metaspace while it is defined. It is approximate, as other classes may be loaded
+ * at the same time. The metaspace of unloaded generations is added up as reclaimed.
+ * </p>
+ * 
+ * @author Szymon Kokot
+ */
+public class JHCRGenerationRepository
+{
+    private static final String METASPACE_POOL = "Metaspace";
+
+    private static final ReferenceQueue<JHCRGenerationLoader> queue = new ReferenceQueue<>();
+    private static final ConcurrentHashMap<Reference<JHCRGenerationLoader>, Generation> live = new ConcurrentHashMap<>();
+    private static final AtomicLong unloaded = new AtomicLong();
+    private static final AtomicLong unloadedBytes = new AtomicLong();
+    private static final AtomicLong unloadedMetaspace = new AtomicLong();
+
+    private static class Generation
+    {
+        final long number;
+        final String className;
+        final int size;
+        final long metaspace;
+
+        Generation (long number, String className, int size, long metaspace)
+        {
+            this.number = number;
+            this.className = className;
+            this.size = size;
+            this.metaspace = metaspace;
+        }
+    }
+
+    /**
+     * Tracks a new generation.
+     * 
+     * @param loader
+     *            the loader of the generation
+     * @param className
+     *            the binary name of the overridden class
+     * @param size
+     *            the size of the bytecode defined by the generation
+     * @param metaspaceBefore
+     *            the metaspace used before the generation was defined, as returned by {@link #getMetaspaceUsed()}
+     */
+    public static void put (JHCRGenerationLoader loader, String className, int size, long metaspaceBefore)
+    {
+        poll();
+        long metaspaceAfter = getMetaspaceUsed();
+        // Unknown if the pool isn't available, and nothing if a collection freed more than the generation took.
+        long metaspace = metaspaceBefore < 0 || metaspaceAfter < 0 ? -1 : Math.max(0, metaspaceAfter - metaspaceBefore);
+        live.put(new PhantomReference<>(loader, queue), new Generation(loader.getGeneration(), className, size, metaspace));
+
+        JHCRLogger.fine("Generation " + loader.getGeneration() + " of " + className + " uses " + metaspace + " bytes of metaspace.");
+    }
+
+    /**
+     * @return the number of generations not unloaded yet
+     */
+    public static long getLiveCount ()
+    {
+        poll();
+
+        return live.size();
+    }
+
+    /**
+     * @return the number of generations unloaded
+     */
+    public static long getUnloadedCount ()
+    {
+        poll();
+
+        return unloaded.get();
+    }
+
+    /**
+     * @return the metaspace in bytes used by the generations unloaded, when they were defined
+     */
+    public static long getUnloadedMetaspace ()
+    {
+        poll();
+
+        return unloadedMetaspace.get();
+    }
+
+    /**
+     * @return the used metaspace in bytes, or -1 if not available
+     */
+    public static long getMetaspaceUsed ()
+    {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+        {
+            if (METASPACE_POOL.equals(pool.getName()))
+            {
+                return pool.getUsage().getUsed();
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Returns a report of the metaspace used by each live generation, and of the metaspace reclaimed by the unloaded ones.
+     * 
+     * @return the report
+     */
+    public static String staticToString ()
+    {
+        poll();
+
+        List<Generation> generations = new ArrayList<>(live.values());
+        generations.sort((a, b) -> Long.compare(a.number, b.number));
+
+        String result = "JHCRGenerationRepository: metaspace used " + getMetaspaceUsed() + " bytes, " + unloaded.get() + " generations unloaded, "
+                + unloadedMetaspace.get() + " bytes of metaspace reclaimed (" + unloadedBytes.get() + " bytes of bytecode)\n";
+
+        for (Generation g : generations)
+        {
+            result += "\t - " + g.number + " -> " + g.className + " (" + g.metaspace + " bytes of metaspace, " + g.size + " bytes of bytecode)\n";
+        }
+
+        return result;
+    }
+
+    private static void poll ()
+    {
+        Reference<? extends JHCRGenerationLoader> reference;
+
+        while ((reference = queue.poll()) != null)
+        {
+            Generation generation = live.remove(reference);
+
+            if (generation != null)
+            {
+                unloaded.incrementAndGet();
+                unloadedBytes.addAndGet(generation.size);
+
+                if (generation.metaspace > 0)
+                {
+                    unloadedMetaspace.addAndGet(generation.metaspace);
+                }
+
+                JHCRLogger.fine("Generation " + generation.number + " of " + generation.className + " unloaded, " + generation.metaspace
+                        + " bytes of metaspace reclaimed.");
+            }
+        }
+    }
+}
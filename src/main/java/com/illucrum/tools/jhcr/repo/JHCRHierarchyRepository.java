@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2025, Illucrum LLC
+ *
+ * This file is part of JHCR.
+ *
+ * JHCR is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * JHCR is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with JHCR. If not, see <https://www.gnu.org/licenses/gpl-3.0.html>.
+ */
+package com.illucrum.tools.jhcr.repo;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Opcodes;
+
+import com.illucrum.tools.jhcr.logger.JHCRLogger;
+
+/**
+ * JHCRHierarchyRepository is a static class that stores the super class and interfaces of classes, read directly from their bytecode.
+ * 
+ * <p>
+ * It lets frames be computed during a transformation without loading classes, which would run the transformer again from inside a transformation. Each
+ * class is identified by its loader and internal name, as different loaders may define different classes with the same name. Loaders are held weakly.
+ * Classes not seen yet are read from the class path resources of the given loader.
+ * </p>
+ * 
+ * @author Szymon Kokot
+ */
+public class JHCRHierarchyRepository
+{
+    private static final Map<ClassLoader, ConcurrentHashMap<String, Node>> loaders = Collections.synchronizedMap(new WeakHashMap<>());
+    private static final ConcurrentHashMap<String, Node> bootstrapNodes = new ConcurrentHashMap<>();
+
+    /**
+     * The position of a class in the hierarchy.
+     */
+    public static class Node
+    {
+        private final String superName;
+        private final String[] interfaces;
+        private final boolean isInterface;
+
+        private Node (String superName, String[] interfaces, boolean isInterface)
+        {
+            this.superName = superName;
+            this.interfaces = interfaces;
+            this.isInterface = isInterface;
+        }
+
+        /**
+         * @return the internal name of the super class, or null for java/lang/Object
+         */
+        public String getSuperName ()
+        {
+            return this.superName;
+        }
+
+        /**
+         * @return the internal names of the directly implemented interfaces
+         */
+        public String[] getInterfaces ()
+        {
+            return this.interfaces;
+        }
+
+        /**
+         * @return true if the class is an interface
+         */
+        public boolean isInterface ()
+        {
+            return this.isInterface;
+        }
+    }
+
+    /**
+     * Stores the hierarchy of a class, overwriting any previous entry.
+     * 
+     * @param loader
+     *            the loader defining the class, may be null
+     * @param name
+     *            the internal name of the class
+     * @param access
+     *            the access flags of the class
+     * @param superName
+     *            the internal name of the super class
+     * @param interfaces
+     *            the internal names of the interfaces, may be null
+     */
+    public static void put (ClassLoader loader, String name, int access, String superName, String[] interfaces)
+    {
+        getNodes(loader).put(name, new Node(superName, interfaces == null ? new String[0] : interfaces, (access & Opcodes.ACC_INTERFACE) != 0));
+    }
+
+    /**
+     * Returns the hierarchy of a class as seen by the given loader. If the class is not stored yet, its bytecode is read from the resources of the given
+     * loader, or of the system class loader.
+     * 
+     * @param name
+     *            the internal name of the class
+     * @param loader
+     *            the loader to look the class up with, may be null
+     * @return the hierarchy of the class, or null if its class file can't be found
+     */
+    public static Node get (String name, ClassLoader loader)
+    {
+        ConcurrentHashMap<String, Node> nodes = getNodes(loader);
+        Node node = nodes.get(name);
+
+        if (node != null)
+        {
+            return node;
+        }
+
+        String resource = name + ".class";
+        InputStream stream = loader == null ? null : loader.getResourceAsStream(resource);
+
+        if (stream == null)
+        {
+            stream = ClassLoader.getSystemResourceAsStream(resource);
+        }
+
+        if (stream == null)
+        {
+            JHCRLogger.finest("No class file for hierarchy of: " + name);
+            return null;
+        }
+
+        try (InputStream input = stream)
+        {
+            ClassReader reader = new ClassReader(input);
+            node = new Node(reader.getSuperName(), reader.getInterfaces(), (reader.getAccess() & Opcodes.ACC_INTERFACE) != 0);
+            Node previous = nodes.putIfAbsent(name, node);
+
+            return previous == null ? node : previous;
+        }
+        catch (IOException | RuntimeException e)
+        {
+            JHCRLogger.fine("Could not read hierarchy of: " + name + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Removes the stored hierarchy of a class for every loader, so it is read again the next time it is needed.
+     * 
+     * @param name
+     *            the internal name of the class
+     */
+    public static void remove (String name)
+    {
+        bootstrapNodes.remove(name);
+
+        synchronized (loaders)
+        {
+            for (ConcurrentHashMap<String, Node> nodes : loaders.values())
+            {
+                nodes.remove(name);
+            }
+        }
+    }
+
+    private static ConcurrentHashMap<String, Node> getNodes (ClassLoader loader)
+    {
+        return loader == null ? bootstrapNodes : loaders.computeIfAbsent(loader, l -> new ConcurrentHashMap<>());
+    }
+}
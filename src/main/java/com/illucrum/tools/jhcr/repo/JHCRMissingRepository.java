@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2025, Illucrum LLC
+ *
+ * This file is part of JHCR.
+ *
+ * JHCR is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * JHCR is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with JHCR. If not, see <https://www.gnu.org/licenses/gpl-3.0.html>.
+ */
+package com.illucrum.tools.jhcr.repo;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.illucrum.tools.jhcr.JHCRAgent;
+import com.illucrum.tools.jhcr.logger.JHCRLogger;
+
+/**
+ * JHCRMissingRepository is a static class that stores the names of classes that could not be found by any class loader, so lookups of optional classes
+ * don't go through the whole delegation chain again.
+ * 
+ * <p>
+ * The repository is bounded by the <code>jhcr.loader.missingCacheSize</code> preference, and is cleared once it is full. It must be cleared whenever a class
+ * may have become available, e.g. a new class file or class path entry.
+ * </p>
+ * 
+ * @author Szymon Kokot
+ */
+public class JHCRMissingRepository
+{
+    private static final int DEFAULT_SIZE = 4096;
+
+    private static final ConcurrentHashMap<String, Boolean> names = new ConcurrentHashMap<>();
+
+    /**
+     * Checks if a class is known to be missing.
+     * 
+     * @param className
+     *            the binary name of the class
+     * @return true if the class was not found since the last {@link #clear()}
+     */
+    public static boolean contains (String className)
+    {
+        return names.containsKey(className);
+    }
+
+    /**
+     * Stores the name of a class that could not be found.
+     * 
+     * @param className
+     *            the binary name of the class
+     */
+    public static void put (String className)
+    {
+        if (names.size() >= getMaxSize())
+        {
+            JHCRLogger.finer("Missing classes repository full, clearing...");
+            names.clear();
+        }
+
+        names.put(className, Boolean.TRUE);
+    }
+
+    /**
+     * Forgets all missing classes.
+     */
+    public static void clear ()
+    {
+        names.clear();
+    }
+
+    private static int getMaxSize ()
+    {
+        // Class loading starts before the agent parses its arguments.
+        if (JHCRAgent.preferences == null)
+        {
+            return DEFAULT_SIZE;
+        }
+
+        try
+        {
+            return Integer.parseInt(JHCRAgent.preferences.getOrDefault("jhcr.loader.missingCacheSize", String.valueOf(DEFAULT_SIZE)));
+        }
+        catch (NumberFormatException e)
+        {
+            return DEFAULT_SIZE;
+        }
+    }
+}
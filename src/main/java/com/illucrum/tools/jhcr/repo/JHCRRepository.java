@@ -13,31 +13,57 @@
  */
 package com.illucrum.tools.jhcr.repo;
 
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
 import java.util.Map.Entry;
-import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
+import com.illucrum.tools.jhcr.loader.JHCRGenerationLoader;
 import com.illucrum.tools.jhcr.logger.JHCRLogger;
+import com.illucrum.tools.jhcr.metrics.JHCRMetrics;
 
 /**
  * JHCRRepository is a static class that is meant to store all the classes that could be reloaded in the future.
  * 
  * Each class stored is identified by class' fully qualified name.
  * 
+ * <p>
+ * Lookups are lock-free. Classes are held weakly, so their loaders can still be unloaded, except for the classes of an override generation: their
+ * {@link com.illucrum.tools.jhcr.loader.JHCRGenerationLoader} is only reachable through the repository while they are the current version.
+ * </p>
+ * 
  * @author Szymon Kokot
  */
 public class JHCRRepository
 {
-    private static final WeakHashMap<String, Class<?>> classes = new WeakHashMap<>();
+    private static final ConcurrentHashMap<String, ClassReference> classes = new ConcurrentHashMap<>();
+    private static final ReferenceQueue<Class<?>> queue = new ReferenceQueue<>();
+
+    private static class ClassReference extends WeakReference<Class<?>>
+    {
+        final String className;
+
+        @SuppressWarnings("unused")
+        final Class<?> strong;
+
+        ClassReference (String className, Class<?> clazz)
+        {
+            super(clazz, queue);
+            this.className = className;
+            this.strong = clazz.getClassLoader() instanceof JHCRGenerationLoader ? clazz : null;
+        }
+    }
 
     /**
-     * This method calls {@link #put(ClassLoader, Class, String)} with <code> clazz.getName() </code> as class name.
+     * This method calls {@link #put(String, Class)} with <code> clazz.getName() </code> as class name.
      * 
-     * @see #put(Class<?>, String)
+     * @see #put(String, Class<?>)
      * 
      * @param clazz
      *            the class to be stored
      */
-    public static synchronized void put (Class<?> clazz)
+    public static void put (Class<?> clazz)
     {
         put(clazz.getName(), clazz);
     }
@@ -50,11 +76,12 @@ public class JHCRRepository
      * @param className
      *            the canonical name of the class to be stored.
      */
-    public static synchronized void put (String className, Class<?> clazz)
+    public static void put (String className, Class<?> clazz)
     {
         JHCRLogger.finer("Saving " + className + "...");
 
-        classes.put(className, clazz);
+        expunge();
+        classes.put(className, new ClassReference(className, clazz));
     }
 
     /**
@@ -64,11 +91,16 @@ public class JHCRRepository
      *            the name of the class to be returned
      * @return returns the class or null if none is found
      */
-    public static synchronized Class<?> get (String className)
+    public static Class<?> get (String className)
     {
         JHCRLogger.finer("Retrieving " + className + "...");
 
-        return classes.get(className);
+        ClassReference reference = classes.get(className);
+        Class<?> clazz = reference == null ? null : reference.get();
+
+        JHCRMetrics.recordRepositoryLookup(clazz != null);
+
+        return clazz;
     }
 
     /**
@@ -76,15 +108,32 @@ public class JHCRRepository
      * 
      * @return the contents of the repository.
      */
-    public static synchronized String staticToString ()
+    public static String staticToString ()
     {
         String result = "JHCRRepository:\n";
 
-        for (Entry<String, Class<?>> e : classes.entrySet())
+        for (Entry<String, ClassReference> e : classes.entrySet())
         {
-            result += "\t - " + e.getKey() + " -> " + e.getValue().getName() + "\n";
+            Class<?> clazz = e.getValue().get();
+
+            if (clazz != null)
+            {
+                result += "\t - " + e.getKey() + " -> " + clazz.getName() + "\n";
+            }
         }
 
         return result;
     }
+
+    private static void expunge ()
+    {
+        Reference<? extends Class<?>> reference;
+
+        while ((reference = queue.poll()) != null)
+        {
+            ClassReference classReference = (ClassReference) reference;
+            // Only removes the entry if it wasn't replaced in the meantime.
+            classes.remove(classReference.className, classReference);
+        }
+    }
 }
@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2025, Illucrum LLC
+ *
+ * This file is part of JHCR.
+ *
+ * JHCR is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * JHCR is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with JHCR. If not, see <https://www.gnu.org/licenses/gpl-3.0.html>.
+ */
+package com.illucrum.tools.jhcr.repo;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.illucrum.tools.jhcr.writer.JHCRClassShape;
+
+/**
+ * JHCRShapeRepository is a static class that remembers the shape of the last version applied for each reloadable class, so the overrider can tell
+ * whether a changed class can be redefined before asking the JVM.
+ * 
+ * @see com.illucrum.tools.jhcr.writer.JHCRClassShape
+ * 
+ * @author Szymon Kokot
+ */
+public class JHCRShapeRepository
+{
+    private static final ConcurrentHashMap<String, JHCRClassShape> shapes = new ConcurrentHashMap<>();
+
+    /**
+     * Stores the shape of the version applied for a class.
+     * 
+     * @param className
+     *            the internal name of the class
+     * @param shape
+     *            the shape of the class
+     */
+    public static void put (String className, JHCRClassShape shape)
+    {
+        shapes.put(className, shape);
+    }
+
+    /**
+     * Returns the shape of the version applied for a class. May return null, e.g. for classes loaded from jars.
+     * 
+     * @param className
+     *            the internal name of the class
+     * @return the shape or null if none is known
+     */
+    public static JHCRClassShape get (String className)
+    {
+        return shapes.get(className);
+    }
+}
@@ -11,21 +11,42 @@ public interface JHCRVariables {
     public final static String LOAD_DESC = "(Ljava/lang/String;Z)Ljava/lang/Class;";
     public final static String DEFINE_WRAPPER_NAME = "defineClassWrapper";
     public final static String DEFINE_WRAPPER_DESC = "(Ljava/lang/String;[BII)Ljava/lang/Class;";
+    public final static String DEFINE_BUFFER_WRAPPER_DESC = "(Ljava/lang/String;Ljava/nio/ByteBuffer;Ljava/security/ProtectionDomain;)Ljava/lang/Class;";
     
     public final static String CLASS_NAME = "java/lang/Class";
     public final static String CLASS_DESC = "Ljava/lang/Class;";
     public final static String OBJECT_NAME = "java/lang/Object";
+    public final static String OBJECT_DESC = "Ljava/lang/Object;";
     public final static String CONSTRUCTOR_NAME = "com/illucrum/tools/jhcr/loader/JHCRConstructor";
     public final static String CONSTRUCT_NAME = "construct";
-    public final static String CONSTRUCT_DESC = "(Ljava/lang/String;[Ljava/lang/Class;[Ljava/lang/Object;)Ljava/lang/Object;";
+    public final static String CONSTRUCT_DESC = "(Ljava/lang/String;Ljava/lang/String;[Ljava/lang/Object;)Ljava/lang/Object;";
+    public final static String CONSTRUCT_SPECIALIZED_DESC = "Ljava/lang/String;Ljava/lang/String;)Ljava/lang/Object;";
+    public final static int CONSTRUCT_REFERENCE_ARITY = 4;
+    public final static int CONSTRUCT_PRIMITIVE_ARITY = 2;
+    public final static String CONSTRUCTOR_SITE_NAME = "com/illucrum/tools/jhcr/loader/JHCRConstructorSite";
+    public final static String BOOTSTRAP_NAME = "bootstrap";
+    public final static String BOOTSTRAP_DESC = "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;)"
+            + "Ljava/lang/invoke/CallSite;";
+    public final static String INDY_MODE = "indy";
     
     public final static String CUSTOM_REPO_NAME = "com/illucrum/tools/jhcr/repo/JHCRCustomRepository";
-    public final static String CUSTOM_REPO_GET_NAME = "get";
-    public final static String CUSTOM_REPO_GET_DESC = "(Ljava/lang/ClassLoader;Ljava/lang/String;)Ljava/lang/Class;";
-    public final static String CUSTOM_REPO_PUT_NAME = "put";
-    public final static String CUSTOM_REPO_PUT_DESC = "(Ljava/lang/String;Ljava/lang/Class;)V";
+    public final static String CUSTOM_REPO_RECORD_NAME = "record";
+    public final static String CUSTOM_REPO_RECORD_DESC = "(Ljava/lang/Class;Ljava/lang/ClassLoader;Ljava/lang/String;)V";
+    public final static String METRICS_NAME = "com/illucrum/tools/jhcr/metrics/JHCRMetrics";
+    public final static String METRICS_CUSTOM_LOOKUP_NAME = "recordCustomRepositoryLookup";
+    public final static String METRICS_CUSTOM_LOOKUP_DESC = "(Z)V";
+    public final static String SHARD_NAME = "java/util/concurrent/ConcurrentHashMap";
+    public final static String SHARD_DESC = "Ljava/util/concurrent/ConcurrentHashMap;";
+    public final static String SHARD_FIELD_NAME = "jhcr$shard";
+    public final static String SHARD_GETTER_NAME = "getRepositoryShard";
+    public final static String SHARD_GETTER_DESC = "()Ljava/util/concurrent/ConcurrentHashMap;";
+    public final static String INIT_NAME = "<init>";
+    public final static String VOID_DESC = "()V";
+    public final static String SHARD_GET_NAME = "get";
+    public final static String SHARD_GET_DESC = "(Ljava/lang/Object;)Ljava/lang/Object;";
     
     public final static String FILE_EXTENSION = ".class";
     
     public final static String PROTOCOL = "file://";
+    public final static String FILE_PROTOCOL = "file";
 }
@@ -0,0 +1,275 @@
+/*
+ * Copyright (C) 2025, Illucrum LLC
+ *
+ * This file is part of JHCR.
+ *
+ * JHCR is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * JHCR is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with JHCR. If not, see <https://www.gnu.org/licenses/gpl-3.0.html>.
+ */
+package com.illucrum.tools.jhcr.watcher;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.apache.commons.io.IOUtils;
+
+import com.illucrum.tools.jhcr.logger.JHCRLogger;
+import com.illucrum.tools.jhcr.vars.JHCRVariables;
+
+/**
+ * Keeps track of the class entries of jars, to find the classes that changed when a jar is rewritten.
+ * 
+ * <p>
+ * Only the central directory of a jar is read to take a snapshot: the CRC and size of each class entry. When the jar changes, the new central directory is
+ * compared with the snapshot, and only the entries added or changed are read. Entries under <code>META-INF/</code>, like multi-release versions, are ignored.
+ * </p>
+ * 
+ * <p>
+ * The snapshot of a changed entry only advances once its class is reloaded, see {@link #advance(Change)}, so an entry that failed to reload is read again
+ * the next time the jar changes.
+ * </p>
+ * 
+ * @author Szymon Kokot
+ */
+public class JHCRJarWatcher implements JHCRVariables
+{
+    private static final String JAR_EXTENSION = ".jar";
+    private static final String META_INF = "META-INF/";
+    private static final String MODULE_INFO = "module-info.class";
+    private static final String AGENT_ENTRY = JHCRJarWatcher.class.getName().replace('.', '/') + FILE_EXTENSION;
+
+    private final Map<Path, Map<String, Long>> snapshots = new ConcurrentHashMap<>();
+
+    /**
+     * A class entry of a jar that was added or changed since the last snapshot.
+     */
+    public static class Change
+    {
+        private final Path jar;
+        private final String entryName;
+        private final Long key;
+        private final byte[] bytecode;
+
+        Change (Path jar, String entryName, Long key, byte[] bytecode)
+        {
+            this.jar = jar;
+            this.entryName = entryName;
+            this.key = key;
+            this.bytecode = bytecode;
+        }
+
+        /**
+         * @return the binary name of the class, derived from the entry name
+         */
+        public String getClassName ()
+        {
+            return this.entryName.substring(0, this.entryName.length() - FILE_EXTENSION.length()).replace('/', '.');
+        }
+
+        /**
+         * @return the bytecode of the class
+         */
+        public byte[] getBytecode ()
+        {
+            return this.bytecode;
+        }
+    }
+
+    /**
+     * Constructs a new {@link com.illucrum.tools.jhcr.watcher.JHCRJarWatcher}, taking a snapshot of the given jars. Other URLs are ignored.
+     * 
+     * @param urls
+     *            the class path
+     */
+    public JHCRJarWatcher (URL[] urls)
+    {
+        for (URL url : urls)
+        {
+            if (FILE_PROTOCOL.equals(url.getProtocol()) && url.getPath().endsWith(JAR_EXTENSION))
+            {
+                Path jar = normalize(toFile(url));
+
+                try
+                {
+                    Map<String, Long> snapshot = snapshot(jar);
+
+                    // The agent jar may be on the class path, its classes are not reloaded.
+                    if (!snapshot.containsKey(AGENT_ENTRY))
+                    {
+                        this.snapshots.put(jar, snapshot);
+                    }
+                }
+                catch (IOException e)
+                {
+                    JHCRLogger.fine("Could not read jar: " + jar + ": " + e.getMessage());
+                }
+            }
+        }
+
+        JHCRLogger.fine("Watching " + this.snapshots.size() + " jars.");
+    }
+
+    /**
+     * @param file
+     *            a file
+     * @return true if the file is one of the jars watched
+     */
+    public boolean isTracked (File file)
+    {
+        return this.snapshots.containsKey(normalize(file));
+    }
+
+    /**
+     * @return the directories containing the jars watched
+     */
+    public Set<Path> getDirectories ()
+    {
+        Set<Path> directories = new LinkedHashSet<>();
+
+        for (Path jar : this.snapshots.keySet())
+        {
+            directories.add(jar.getParent());
+        }
+
+        return directories;
+    }
+
+    /**
+     * Reads the class entries of a watched jar that were added or changed since the last snapshot. Entries removed from the jar are dropped from the
+     * snapshot, the others stay as they are until advanced.
+     * 
+     * @param file
+     *            the jar
+     * @return the added or changed entries
+     * @throws IOException
+     *             if the jar can't be read
+     */
+    public List<Change> readChanged (File file) throws IOException
+    {
+        Path jar = normalize(file);
+        Map<String, Long> previous = this.snapshots.computeIfAbsent(jar, key -> new ConcurrentHashMap<>());
+        Set<String> current = new HashSet<>();
+        List<Change> changed = new ArrayList<>();
+
+        try (ZipFile zip = new ZipFile(jar.toFile()))
+        {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+
+            while (entries.hasMoreElements())
+            {
+                ZipEntry entry = entries.nextElement();
+
+                if (!isClass(entry))
+                {
+                    continue;
+                }
+
+                Long key = key(entry);
+                current.add(entry.getName());
+
+                if (!key.equals(previous.get(entry.getName())))
+                {
+                    JHCRLogger.finer("Changed jar entry: " + jar + "!/" + entry.getName());
+
+                    try (InputStream input = zip.getInputStream(entry))
+                    {
+                        changed.add(new Change(jar, entry.getName(), key, IOUtils.toByteArray(input, entry.getSize())));
+                    }
+                }
+            }
+        }
+
+        previous.keySet().retainAll(current);
+        JHCRLogger.fine(changed.size() + " of " + current.size() + " classes changed in " + jar);
+
+        return changed;
+    }
+
+    /**
+     * Advances the snapshot of a changed entry, once its class was reloaded.
+     * 
+     * @param change
+     *            an entry returned by {@link #readChanged(File)}
+     */
+    public void advance (Change change)
+    {
+        Map<String, Long> snapshot = this.snapshots.get(change.jar);
+
+        if (snapshot != null)
+        {
+            snapshot.put(change.entryName, change.key);
+        }
+    }
+
+    private static Map<String, Long> snapshot (Path jar) throws IOException
+    {
+        Map<String, Long> snapshot = new ConcurrentHashMap<>();
+
+        // Opening the zip only reads its central directory.
+        try (ZipFile zip = new ZipFile(jar.toFile()))
+        {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+
+            while (entries.hasMoreElements())
+            {
+                ZipEntry entry = entries.nextElement();
+
+                if (isClass(entry))
+                {
+                    snapshot.put(entry.getName(), key(entry));
+                }
+            }
+        }
+
+        return snapshot;
+    }
+
+    private static boolean isClass (ZipEntry entry)
+    {
+        String name = entry.getName();
+
+        return !entry.isDirectory() && name.endsWith(FILE_EXTENSION) && !name.startsWith(META_INF) && !name.equals(MODULE_INFO);
+    }
+
+    private static Long key (ZipEntry entry)
+    {
+        // The CRC takes the lower 32 bits, class files are far smaller than 4GB.
+        return entry.getCrc() ^ (entry.getSize() << 32);
+    }
+
+    private static File toFile (URL url)
+    {
+        try
+        {
+            return new File(url.toURI());
+        }
+        catch (URISyntaxException | IllegalArgumentException e)
+        {
+            return new File(url.getPath());
+        }
+    }
+
+    private static Path normalize (File file)
+    {
+        return file.getAbsoluteFile().toPath().normalize();
+    }
+}
@@ -14,22 +14,59 @@
 package com.illucrum.tools.jhcr.watcher;
 
 import java.io.File;
-import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.io.monitor.FileAlterationListenerAdaptor;
+import org.apache.commons.io.monitor.FileAlterationObserver;
 
+import com.illucrum.tools.jhcr.JHCRAgent;
 import com.illucrum.tools.jhcr.logger.JHCRLogger;
+import com.illucrum.tools.jhcr.metrics.JHCRMetrics;
+import com.illucrum.tools.jhcr.repo.JHCRMissingRepository;
+import com.illucrum.tools.jhcr.writer.JHCRTypeFilter;
 
 /**
  * This class is responsible of keeping track of what files are being changed. When it detects a file change, it triggers the class redefinition or override.
  * 
+ * <p>
+ * Changes are collected until no file changed for the quiet period set by <code>jhcr.watcher.quietPeriod</code>, and every collected file keeps its size
+ * and modification time between two checks. The files are then handed to the {@link com.illucrum.tools.jhcr.watcher.JHCRReloadPipeline} as a single
+ * batch, each file once, so the monitor thread never reads or reloads classes itself.
+ * </p>
+ * 
+ * <p>
+ * Changed jars tracked by a {@link com.illucrum.tools.jhcr.watcher.JHCRJarWatcher} are collected the same way, and only their changed classes are read.
+ * </p>
+ * 
  * @author Szymon Kokot
  */
 public class JHCRListener extends FileAlterationListenerAdaptor
 {
+    private static final long DEFAULT_QUIET_PERIOD = 100;
+
     private final String fileExtension;
+    private final JHCRJarWatcher jars;
+    private final JHCRReloadPipeline pipeline;
+    private final long quietPeriod;
+    private final Map<Path, Change> pending = new LinkedHashMap<>();
+    private final ScheduledExecutorService executor;
+    private long lastChange;
+    private boolean scheduled = false;
+    private long scanStart;
+
+    private static class Change
+    {
+        boolean created;
+        long size;
+        long modified;
+    }
 
     /**
      * Constructs a new {@link com.illucrum.tools.jhcr.watcher.JHCRListener}
@@ -37,54 +74,148 @@ public class JHCRListener extends FileAlterationListenerAdaptor
      * @param fileExtension the extensions of the files that should be watched
      */
     public JHCRListener (String fileExtension)
+    {
+        this(fileExtension, null);
+    }
+
+    /**
+     * Constructs a new {@link com.illucrum.tools.jhcr.watcher.JHCRListener} that also reloads the classes changed in jars.
+     * 
+     * @param fileExtension the extensions of the files that should be watched
+     * @param jars the jars that should be watched, may be null
+     */
+    public JHCRListener (String fileExtension, JHCRJarWatcher jars)
     {
         this.fileExtension = fileExtension;
+        this.jars = jars;
+        this.pipeline = new JHCRReloadPipeline(jars);
+        this.quietPeriod = getQuietPeriod();
+        this.executor = Executors.newSingleThreadScheduledExecutor(r ->
+        {
+            Thread thread = new Thread(r, "JHCR change batches");
+            thread.setDaemon(true);
+            return thread;
+        });
     }
 
     @Override
-    public void onFileCreate (File file)
+    public void onStart (FileAlterationObserver observer)
     {
-        String fileName = file.getName();
+        this.scanStart = System.nanoTime();
+    }
 
-        if (fileName.endsWith(this.fileExtension))
+    @Override
+    public void onStop (FileAlterationObserver observer)
+    {
+        JHCRMetrics.recordScan(System.nanoTime() - this.scanStart);
+    }
+
+    @Override
+    public void onFileCreate (File file)
+    {
+        if (this.isWatched(file))
         {
             JHCRLogger.finest("File created...");
-            Path path = Paths.get(file.getAbsolutePath());
-            JHCRLogger.finer("Reading: " + file.getAbsolutePath());
-
-            try
-            {
-                byte[] compiled = Files.readAllBytes(path);
-                JHCROverrider.overrideClass(compiled);
-            }
-            catch (Exception e)
-            {
-                e.printStackTrace();
-                JHCRLogger.warning("Error loading a new file: " + file.getAbsolutePath());
-            }
+            JHCRMissingRepository.clear();
+            JHCRTypeFilter.clearRejected();
+            this.add(file, true);
         }
     }
 
     @Override
     public void onFileChange (File file)
     {
-        String fileName = file.getName();
-        if (fileName.endsWith(this.fileExtension))
+        if (this.isWatched(file))
         {
             JHCRLogger.finest("File modified...");
-            Path path = Paths.get(file.getAbsolutePath());
-            JHCRLogger.finer("Reading: " + file.getAbsolutePath());
+            this.add(file, false);
+        }
+    }
+
+    /**
+     * @param file a file
+     * @return true if the file is a class file, or one of the jars watched
+     */
+    public boolean isWatched (File file)
+    {
+        return file.getName().endsWith(this.fileExtension) || (this.jars != null && this.jars.isTracked(file));
+    }
 
-            try
+    private void add (File file, boolean created)
+    {
+        synchronized (this.pending)
+        {
+            Change change = this.pending.computeIfAbsent(file.getAbsoluteFile().toPath(), p -> new Change());
+            change.created |= created;
+            change.size = file.length();
+            change.modified = file.lastModified();
+            this.lastChange = System.nanoTime();
+
+            if (!this.scheduled)
             {
-                byte[] compiled = Files.readAllBytes(path);
-                JHCROverrider.overrideClass(compiled);
+                this.scheduled = true;
+                this.executor.schedule(this::flush, this.quietPeriod, TimeUnit.MILLISECONDS);
             }
-            catch (Exception e)
+        }
+    }
+
+    private void flush ()
+    {
+        List<Path> batch;
+
+        synchronized (this.pending)
+        {
+            long quiet = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - this.lastChange);
+
+            if (quiet < this.quietPeriod)
             {
-                e.printStackTrace();
-                JHCRLogger.warning("Error loading a modified file: " + file.getAbsolutePath());
+                this.executor.schedule(this::flush, this.quietPeriod - quiet, TimeUnit.MILLISECONDS);
+                return;
             }
+
+            // Files still being written are waited for, so they aren't read half-written.
+            boolean stable = true;
+
+            for (Map.Entry<Path, Change> entry : this.pending.entrySet())
+            {
+                File file = entry.getKey().toFile();
+                Change change = entry.getValue();
+
+                if (file.length() != change.size || file.lastModified() != change.modified)
+                {
+                    change.size = file.length();
+                    change.modified = file.lastModified();
+                    stable = false;
+                }
+            }
+
+            if (!stable)
+            {
+                JHCRLogger.finest("Files still changing, waiting...");
+                this.lastChange = System.nanoTime();
+                this.executor.schedule(this::flush, this.quietPeriod, TimeUnit.MILLISECONDS);
+                return;
+            }
+
+            batch = new ArrayList<>(this.pending.keySet());
+            this.pending.clear();
+            this.scheduled = false;
+        }
+
+        JHCRLogger.fine("Reloading " + batch.size() + " changed files.");
+        this.pipeline.submit(batch);
+    }
+
+    private static long getQuietPeriod ()
+    {
+        try
+        {
+            return Long.parseLong(JHCRAgent.preferences.get("jhcr.watcher.quietPeriod"));
+        }
+        catch (Exception e)
+        {
+            JHCRLogger.fine("Quiet period set to default value of " + DEFAULT_QUIET_PERIOD + "ms.");
+            return DEFAULT_QUIET_PERIOD;
         }
     }
 }
@@ -14,6 +14,13 @@
 package com.illucrum.tools.jhcr.watcher;
 
 import java.lang.instrument.ClassDefinition;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
 
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassVisitor;
@@ -22,11 +29,21 @@ import org.objectweb.asm.commons.ClassRemapper;
 
 import com.illucrum.tools.jhcr.JHCRAgent;
 import com.illucrum.tools.jhcr.loader.JHCRClassLoader;
+import com.illucrum.tools.jhcr.loader.JHCRConstructor;
 import com.illucrum.tools.jhcr.loader.JHCRCustomLoader;
+import com.illucrum.tools.jhcr.loader.JHCRGenerationLoader;
 import com.illucrum.tools.jhcr.loader.JHCRURLClassLoader;
 import com.illucrum.tools.jhcr.logger.JHCRLogger;
+import com.illucrum.tools.jhcr.metrics.JHCREvents;
+import com.illucrum.tools.jhcr.metrics.JHCRMetrics;
 import com.illucrum.tools.jhcr.repo.JHCRCustomRepository;
+import com.illucrum.tools.jhcr.repo.JHCRDigestRepository;
+import com.illucrum.tools.jhcr.repo.JHCRGenerationRepository;
+import com.illucrum.tools.jhcr.repo.JHCRHierarchyRepository;
 import com.illucrum.tools.jhcr.repo.JHCRRepository;
+import com.illucrum.tools.jhcr.repo.JHCRShapeRepository;
+import com.illucrum.tools.jhcr.watcher.JHCRReloadReport.Result;
+import com.illucrum.tools.jhcr.writer.JHCRClassShape;
 import com.illucrum.tools.jhcr.writer.JHCRRemapper;
 
 /**
@@ -36,7 +53,28 @@ import com.illucrum.tools.jhcr.writer.JHCRRemapper;
  */
 public class JHCROverrider
 {
-    private static long counter = -1;
+    private static final String GENERATION_MODE = "generation";
+
+    private static final AtomicLong GENERATIONS = new AtomicLong();
+
+    /**
+     * A changed class, read and remapped onto the loaded class.
+     */
+    static class Prepared
+    {
+        byte[] bytecode;
+        ClassReader reader;
+        String byteInternalName;
+        String byteBinaryName;
+        Class<?> clazz;
+        JHCRRemapper remapper;
+        byte[] newBytecode;
+        byte[] digest;
+        JHCRClassShape shape;
+        String reason;
+        String error;
+        long nanos;
+    }
 
     /**
      * This method takes the bytecode as a byte array and attempts redefine the class it contains. If not possible, it attempts to override the original class.
@@ -47,112 +85,370 @@ public class JHCROverrider
      * 
      * @param bytecode
      *            byte array read directly from the .class file.
+     * 
+     * @see #overrideClasses(Collection)
      */
     public static void overrideClass (byte[] bytecode)
     {
-        JHCRLogger.finest("Overriding...");
-        if (bytecode == null || bytecode.length == 0)
-        {
-            JHCRLogger.fine("Override class bytecode null or empty.");
-            return;
-        }
+        overrideClasses(Collections.singletonList(bytecode));
+    }
 
-        ClassReader reader = new ClassReader(bytecode);
-        String byteInternalName = reader.getClassName();
-        String byteBinaryName = byteInternalName.replaceAll("/", ".");
+    /**
+     * Redefines or overrides the classes of a batch of changed class files.
+     * 
+     * <p>
+     * The class files are read and remapped onto the loaded classes in parallel, then applied, see {@link #apply(List, long)}. Classes whose shape changed
+     * since the last version applied are overridden right away, see {@link com.illucrum.tools.jhcr.writer.JHCRClassShape}. All the other classes are then
+     * redefined with a single {@link java.lang.instrument.Instrumentation#redefineClasses(ClassDefinition...)} call, so the batch costs a single safepoint. If
+     * that fails, each class is redefined on its own, and only the classes that still can't be redefined are overridden.
+     * </p>
+     * 
+     * <p>
+     * With <code>jhcr.override.loader=generation</code> each override is defined by its own {@link com.illucrum.tools.jhcr.loader.JHCRGenerationLoader}, so
+     * the replaced generations can be unloaded. Override classes then live in a different runtime package than the originals, and can't access their
+     * package-private members.
+     * </p>
+     * 
+     * @param bytecodes
+     *            byte arrays read directly from the .class files. Null or empty arrays are skipped.
+     * @return the outcome of every class
+     */
+    public static JHCRReloadReport overrideClasses (Collection<byte[]> bytecodes)
+    {
+        long start = System.nanoTime();
 
-        JHCRURLClassLoader loader = ((JHCRClassLoader) ClassLoader.getSystemClassLoader()).getURLClassLoader();
+        return apply(bytecodes.parallelStream().map(JHCROverrider::prepare).collect(Collectors.toList()), start);
+    }
+
+    /**
+     * Redefines or overrides a batch of classes prepared with {@link #prepare(byte[])}.
+     * 
+     * <p>
+     * Batches are applied one at a time. Whether a class is unchanged, and whether its shape changed, is only decided here against the last version
+     * applied, so batches can be prepared while an earlier one is still being applied. A class overridden since it was prepared is prepared again.
+     * </p>
+     * 
+     * @param batch
+     *            the prepared classes
+     * @param start
+     *            when the batch was detected, as given by {@link System#nanoTime()}
+     * @return the outcome of every class
+     */
+    static synchronized JHCRReloadReport apply (List<Prepared> batch, long start)
+    {
+        JHCRReloadReport report = new JHCRReloadReport();
+        JHCRURLClassLoader loader = getLoader();
 
         if (loader == null)
         {
             JHCRLogger.fine("No class Loader set. Can't override...");
-            return;
+            return report;
         }
 
-        JHCRLogger.finer("Overriding: " + byteBinaryName);
+        List<Prepared> prepared = new ArrayList<>();
+        List<Prepared> changedShape = new ArrayList<>();
 
-        Class<?> clazz = null;
-        try
+        for (Prepared p : batch)
         {
-            clazz = loader.loadClass(byteBinaryName);
+            if (p.error != null)
+            {
+                report.add(p.byteBinaryName, Result.FAILED, p.nanos, p.error);
+                continue;
+            }
+
+            if (p.digest != null && JHCRDigestRepository.isUnchanged(p.byteInternalName, p.digest))
+            {
+                JHCRLogger.finer("Unchanged: " + p.byteBinaryName);
+                JHCRMetrics.recordUnchangedReload();
+                report.add(p.byteBinaryName, Result.UNCHANGED, p.nanos);
+                continue;
+            }
+
+            // The class was overridden by an earlier batch, the remapping targets the replaced class.
+            if (p.clazz != null && p.clazz != load(loader, p.byteBinaryName))
+            {
+                long nanos = p.nanos;
+                p = prepare(p.bytecode);
+                p.nanos += nanos;
+            }
+
+            if (p.error != null)
+            {
+                report.add(p.byteBinaryName, Result.FAILED, p.nanos, p.error);
+                continue;
+            }
+
+            if (p.clazz == null)
+            {
+                report.add(p.byteBinaryName, Result.SKIPPED, p.nanos);
+                continue;
+            }
+
+            JHCRClassShape current = JHCRShapeRepository.get(p.byteInternalName);
+            p.reason = current == null ? null : current.diff(p.shape);
+
+            if (p.reason != null)
+            {
+                changedShape.add(p);
+            }
+            else
+            {
+                prepared.add(p);
+            }
         }
-        catch (Exception e)
+
+        // Classes whose shape changed can't be redefined, the JVM isn't even asked.
+        for (Prepared p : changedShape)
         {
-            JHCRLogger.fine("Could not load class: " + byteBinaryName);
-            return;
+            long classStart = System.nanoTime();
+            JHCRLogger.finer("Overriding " + p.byteBinaryName + ": " + p.reason);
+            boolean overridden = override(p, loader);
+            report.add(p.byteBinaryName, overridden ? Result.OVERRIDDEN : Result.FAILED, p.nanos + System.nanoTime() - classStart, p.reason);
         }
 
-        if (clazz != null)
+        if (!prepared.isEmpty() && !redefine(prepared, report))
         {
-            String classBinaryName = clazz.getCanonicalName();
-            String classInternalName = classBinaryName.replaceAll("\\.", "/");
+            for (Prepared p : prepared)
+            {
+                long classStart = System.nanoTime();
 
-            JHCRRemapper remapper = new JHCRRemapper(byteInternalName, classInternalName);
+                // A single class was just tried on its own.
+                if (prepared.size() > 1 && redefine(Collections.singletonList(p), null))
+                {
+                    report.add(p.byteBinaryName, Result.REDEFINED_ALONE, p.nanos + System.nanoTime() - classStart);
+                }
+                else
+                {
+                    p.reason = p.shape == null ? "shape unknown, rejected by the JVM" : "rejected by the JVM";
+                    boolean overridden = override(p, loader);
+                    report.add(p.byteBinaryName, overridden ? Result.OVERRIDDEN : Result.FAILED, p.nanos + System.nanoTime() - classStart, p.reason);
+                }
+            }
+        }
+
+        report.setTotalNanos(System.nanoTime() - start);
+        JHCRLogger.fine(report.toString());
 
-            ClassWriter writer = new ClassWriter(reader, 0);
-            ClassVisitor visitor = new ClassRemapper(writer, remapper);
-            byte[] newBytecode;
+        return report;
+    }
 
-            if (!classBinaryName.equals(byteBinaryName))
+    /**
+     * Reads a changed class file and remaps it onto the loaded class. Changed class files can be prepared in parallel.
+     * 
+     * @param bytecode
+     *            byte array read directly from the .class file
+     * @return the prepared class, without a loaded class if it can't be reloaded
+     */
+    static Prepared prepare (byte[] bytecode)
+    {
+        long start = System.nanoTime();
+        Prepared prepared = new Prepared();
+        prepared.bytecode = bytecode;
+        JHCRURLClassLoader loader = getLoader();
+
+        try
+        {
+            JHCRLogger.finest("Overriding...");
+            if (bytecode == null || bytecode.length == 0)
             {
-                reader.accept(visitor, 0);
-                newBytecode = writer.toByteArray();
+                JHCRLogger.fine("Override class bytecode null or empty.");
+                return prepared;
             }
-            else
+
+            if (loader == null)
             {
-                newBytecode = bytecode;
+                return prepared;
             }
 
-            try
+            prepared.reader = new ClassReader(bytecode);
+            prepared.byteInternalName = prepared.reader.getClassName();
+            prepared.byteBinaryName = prepared.byteInternalName.replaceAll("/", ".");
+
+            prepared.digest = JHCRDigestRepository.digest(bytecode);
+
+            JHCRLogger.finer("Overriding: " + prepared.byteBinaryName);
+
+            prepared.clazz = load(loader, prepared.byteBinaryName);
+
+            if (prepared.clazz == null)
+            {
+                JHCRLogger.fine("Could not load class: " + prepared.byteBinaryName);
+                return prepared;
+            }
+
+            prepared.shape = JHCRClassShape.of(prepared.reader);
+
+            String classBinaryName = prepared.clazz.getCanonicalName();
+            String classInternalName = classBinaryName.replaceAll("\\.", "/");
+
+            prepared.remapper = new JHCRRemapper(prepared.byteInternalName, classInternalName);
+
+            if (!classBinaryName.equals(prepared.byteBinaryName))
             {
-                JHCRLogger.finer("Redefining: " + classBinaryName);
-                ClassDefinition classDefinition = new ClassDefinition(clazz, newBytecode);
-                JHCRAgent.instrumentation.redefineClasses(classDefinition);
-                return;
+                ClassWriter writer = new ClassWriter(prepared.reader, 0);
+                prepared.reader.accept(new ClassRemapper(writer, prepared.remapper), 0);
+                prepared.newBytecode = writer.toByteArray();
             }
-            catch (Exception e)
+            else
             {
-                JHCRLogger.fine("Could not redefine class: " + byteBinaryName);
+                prepared.newBytecode = bytecode;
             }
+        }
+        catch (Exception e)
+        {
+            e.printStackTrace();
+            JHCRLogger.fine("Could not read class file.");
+            prepared.clazz = null;
+            prepared.error = "could not read the class file: " + e;
+        }
+        finally
+        {
+            prepared.nanos = System.nanoTime() - start;
+        }
 
-            JHCRLogger.finer("Overriding: " + byteBinaryName);
+        return prepared;
+    }
 
-            counter++;
-            reader = new ClassReader(bytecode);
-            writer = new ClassWriter(reader, 0);
-            visitor = new ClassRemapper(writer, remapper);
+    /**
+     * Redefines the given classes with a single call.
+     * 
+     * @param report
+     *            the report the redefined classes are added to, or null
+     * @return false if the classes couldn't be redefined, in which case none of them was
+     */
+    private static boolean redefine (List<Prepared> prepared, JHCRReloadReport report)
+    {
+        ClassDefinition[] definitions = new ClassDefinition[prepared.size()];
 
-            String suffix = JHCRAgent.preferences.get("jhcr.suffix");
-            String newInternalName = byteInternalName + suffix + counter;
-            String newBinaryName = byteBinaryName + suffix + counter;
+        for (int i = 0; i < definitions.length; i++)
+        {
+            Prepared p = prepared.get(i);
+            JHCRLogger.finer("Redefining: " + p.clazz.getName());
+            definitions[i] = new ClassDefinition(p.clazz, p.newBytecode);
+        }
+
+        Object redefineEvent = JHCREvents.beginRedefine();
+        long start = System.nanoTime();
 
-            JHCRLogger.finest("New internal: " + newInternalName + "; New binary: " + newBinaryName);
+        try
+        {
+            JHCRAgent.instrumentation.redefineClasses(definitions);
+        }
+        catch (Exception | LinkageError e)
+        {
+            JHCREvents.commitRedefine(redefineEvent, definitions.length, false);
+            JHCRLogger.fine("Could not redefine "
+                    + (definitions.length == 1 ? "class: " + prepared.get(0).byteBinaryName : definitions.length + " classes together."));
+            return false;
+        }
 
-            remapper.setNewName(newInternalName);
-            reader.accept(visitor, 0);
-            newBytecode = writer.toByteArray();
+        JHCREvents.commitRedefine(redefineEvent, definitions.length, true);
 
-            JHCRCustomLoader customLoader = (JHCRCustomLoader) clazz.getClassLoader();
+        if (report != null)
+        {
+            report.setBatchNanos(System.nanoTime() - start);
+        }
 
-            try
+        for (Prepared p : prepared)
+        {
+            JHCRDigestRepository.put(p.byteInternalName, p.digest);
+            JHCRShapeRepository.put(p.byteInternalName, p.shape);
+            JHCRMetrics.recordRedefinition();
+
+            if (report != null)
             {
-                Class<?> newClazz = customLoader.defineClassWrapper(newBinaryName, newBytecode, 0, newBytecode.length);
+                report.add(p.byteBinaryName, Result.REDEFINED, p.nanos);
+            }
+        }
 
-                if (loader.equals(customLoader))
-                {
-                    JHCRRepository.put(byteBinaryName, newClazz);
-                }
-                else
-                {
-                    JHCRCustomRepository.put(byteBinaryName, newClazz);
-                }
+        return true;
+    }
+
+    private static JHCRURLClassLoader getLoader ()
+    {
+        return ((JHCRClassLoader) ClassLoader.getSystemClassLoader()).getURLClassLoader();
+    }
+
+    private static Class<?> load (JHCRURLClassLoader loader, String className)
+    {
+        try
+        {
+            return loader.loadClass(className);
+        }
+        catch (Exception e)
+        {
+            return null;
+        }
+    }
+
+    private static boolean override (Prepared prepared, JHCRURLClassLoader loader)
+    {
+        String byteInternalName = prepared.byteInternalName;
+        String byteBinaryName = prepared.byteBinaryName;
+        Class<?> clazz = prepared.clazz;
+
+        JHCRLogger.finer("Overriding: " + byteBinaryName);
+
+        long generation = GENERATIONS.getAndIncrement();
+        ClassWriter writer = new ClassWriter(prepared.reader, 0);
+        ClassVisitor visitor = new ClassRemapper(writer, prepared.remapper);
+
+        String suffix = JHCRAgent.preferences.get("jhcr.suffix");
+        String newInternalName = byteInternalName + suffix + generation;
+        String newBinaryName = byteBinaryName + suffix + generation;
+
+        JHCRLogger.finest("New internal: " + newInternalName + "; New binary: " + newBinaryName);
+
+        prepared.remapper.setNewName(newInternalName);
+        prepared.reader.accept(visitor, 0);
+        byte[] newBytecode = writer.toByteArray();
+
+        // An earlier generation delegates to the loader of the original class. Defining on top of it would keep every generation reachable.
+        ClassLoader baseLoader = clazz.getClassLoader();
+        if (baseLoader instanceof JHCRGenerationLoader)
+        {
+            baseLoader = baseLoader.getParent();
+        }
+
+        boolean generationMode = GENERATION_MODE.equals(JHCRAgent.preferences.get("jhcr.override.loader"));
+        JHCRCustomLoader customLoader = generationMode ? new JHCRGenerationLoader(baseLoader, generation) : (JHCRCustomLoader) baseLoader;
+        long metaspaceBefore = generationMode ? JHCRGenerationRepository.getMetaspaceUsed() : -1;
+
+        try
+        {
+            // The override shares the protection domain of the original class. Wrapping the array doesn't copy it.
+            Class<?> newClazz = customLoader.defineClassWrapper(newBinaryName, ByteBuffer.wrap(newBytecode), clazz.getProtectionDomain());
+
+            if (loader.equals(baseLoader))
+            {
+                JHCRRepository.put(byteBinaryName, newClazz);
             }
-            catch (Exception e)
+            else
+            {
+                JHCRCustomRepository.put(baseLoader, byteBinaryName, newClazz);
+            }
+
+            if (generationMode)
             {
-                e.printStackTrace();
-                JHCRLogger.fine("Error performing override.");
+                JHCRGenerationRepository.put((JHCRGenerationLoader) customLoader, byteBinaryName, newBytecode.length, metaspaceBefore);
             }
 
+            JHCRDigestRepository.put(byteInternalName, prepared.digest);
+            JHCRShapeRepository.put(byteInternalName, prepared.shape);
+            JHCRConstructor.invalidate(byteBinaryName);
+            JHCRHierarchyRepository.remove(byteInternalName);
+            JHCRMetrics.recordOverride();
+            JHCREvents.commitOverride(byteBinaryName, newBinaryName);
+
+            return true;
+        }
+        catch (Exception | LinkageError e)
+        {
+            e.printStackTrace();
+            JHCRLogger.fine("Error performing override.");
+            JHCRMetrics.recordOverrideFailure();
+
+            return false;
         }
     }
 }
@@ -0,0 +1,287 @@
+/*
+ * Copyright (C) 2025, Illucrum LLC
+ *
+ * This file is part of JHCR.
+ *
+ * JHCR is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * JHCR is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with JHCR. If not, see <https://www.gnu.org/licenses/gpl-3.0.html>.
+ */
+package com.illucrum.tools.jhcr.watcher;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.illucrum.tools.jhcr.loader.JHCRClassLoader;
+import com.illucrum.tools.jhcr.loader.JHCRURLClassLoader;
+import com.illucrum.tools.jhcr.logger.JHCRLogger;
+import com.illucrum.tools.jhcr.watcher.JHCRJarWatcher.Change;
+import com.illucrum.tools.jhcr.watcher.JHCROverrider.Prepared;
+import com.illucrum.tools.jhcr.watcher.JHCRReloadReport.Outcome;
+import com.illucrum.tools.jhcr.watcher.JHCRReloadReport.Result;
+
+/**
+ * This class reloads the batches of changed files collected by the {@link com.illucrum.tools.jhcr.watcher.JHCRListener}, in three stages:
+ * 
+ * <p>
+ * <ol>
+ * <li>Detected batches wait in a bounded queue.</li>
+ * <li>The files of a batch are read and prepared in parallel, see {@link com.illucrum.tools.jhcr.watcher.JHCROverrider#prepare(byte[])}. On Java 21+
+ * each file gets its own virtual thread, otherwise a pool with a thread per processor is used. At most a few files per processor are in flight.</li>
+ * <li>Prepared batches wait in a bounded queue, and are applied one at a time by a single thread, see
+ * {@link com.illucrum.tools.jhcr.watcher.JHCROverrider#apply(List, long)}. The snapshots of the changed jar entries are then advanced,
+ * except for the classes that failed.</li>
+ * </ol>
+ * </p>
+ * 
+ * <p>
+ * When a queue is full, the stage before it waits. The listener keeps collecting changes meanwhile, so they end up in the next batch.
+ * </p>
+ * 
+ * @author Szymon Kokot
+ */
+public class JHCRReloadPipeline
+{
+    private static final int QUEUE_CAPACITY = 4;
+    private static final int FILES_PER_PROCESSOR = 4;
+
+    private final JHCRJarWatcher jars;
+    private final BlockingQueue<Batch> detected = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final BlockingQueue<Batch> prepared = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final Semaphore inFlight = new Semaphore(Runtime.getRuntime().availableProcessors() * FILES_PER_PROCESSOR);
+    private final ExecutorService workers = createWorkers();
+
+    private static class Batch
+    {
+        final long start = System.nanoTime();
+        List<Path> paths;
+        List<Prepared> classes;
+        final Map<String, Change> jarChanges = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Constructs a new {@link com.illucrum.tools.jhcr.watcher.JHCRReloadPipeline} and starts its stages.
+     * 
+     * @param jars
+     *            the jars whose changed classes are read, may be null
+     */
+    public JHCRReloadPipeline (JHCRJarWatcher jars)
+    {
+        this.jars = jars;
+
+        newThread("JHCR reload preparation", this::prepareBatches).start();
+        newThread("JHCR reload application", this::applyBatches).start();
+    }
+
+    /**
+     * Queues a batch of changed files. Waits while the queue is full.
+     * 
+     * @param paths
+     *            the changed class files and jars
+     */
+    public void submit (List<Path> paths)
+    {
+        Batch batch = new Batch();
+        batch.paths = paths;
+
+        try
+        {
+            if (!this.detected.offer(batch))
+            {
+                JHCRLogger.finest("Reload queue full, waiting...");
+                this.detected.put(batch);
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            JHCRLogger.warning("Interrupted while queueing changed files.");
+        }
+    }
+
+    private void prepareBatches ()
+    {
+        try
+        {
+            while (true)
+            {
+                Batch batch = this.detected.take();
+                List<Future<List<Prepared>>> futures = new ArrayList<>(batch.paths.size());
+
+                for (Path path : batch.paths)
+                {
+                    this.inFlight.acquire();
+
+                    try
+                    {
+                        futures.add(this.workers.submit(() -> this.prepareFile(path, batch)));
+                    }
+                    catch (RuntimeException e)
+                    {
+                        this.inFlight.release();
+                        throw e;
+                    }
+                }
+
+                batch.classes = new ArrayList<>(futures.size());
+
+                for (Future<List<Prepared>> future : futures)
+                {
+                    try
+                    {
+                        batch.classes.addAll(future.get());
+                    }
+                    catch (Exception e)
+                    {
+                        e.printStackTrace();
+                        JHCRLogger.warning("Error preparing a changed file: " + e);
+                    }
+                }
+
+                this.prepared.put(batch);
+            }
+        }
+        catch (InterruptedException e)
+        {
+            JHCRLogger.fine("Reload preparation stopped.");
+        }
+    }
+
+    private List<Prepared> prepareFile (Path path, Batch batch)
+    {
+        try
+        {
+            JHCRLogger.finer("Reading: " + path);
+
+            if (this.jars != null && this.jars.isTracked(path.toFile()))
+            {
+                // Classes not loaded yet are read from the new jar, so the snapshot of their entries can advance as well.
+                JHCRURLClassLoader loader = ((JHCRClassLoader) ClassLoader.getSystemClassLoader()).getURLClassLoader();
+
+                if (loader != null)
+                {
+                    loader.refreshJar(path.toFile());
+                }
+
+                List<Change> changes = this.jars.readChanged(path.toFile());
+                List<Prepared> classes = new ArrayList<>(changes.size());
+
+                for (Change change : changes)
+                {
+                    batch.jarChanges.put(change.getClassName(), change);
+                    classes.add(JHCROverrider.prepare(change.getBytecode()));
+                }
+
+                return classes;
+            }
+
+            return Collections.singletonList(JHCROverrider.prepare(Files.readAllBytes(path)));
+        }
+        catch (Exception e)
+        {
+            e.printStackTrace();
+            JHCRLogger.warning("Error loading a changed file: " + path);
+            return Collections.emptyList();
+        }
+        finally
+        {
+            this.inFlight.release();
+        }
+    }
+
+    private void applyBatches ()
+    {
+        try
+        {
+            while (true)
+            {
+                Batch batch = this.prepared.take();
+
+                try
+                {
+                    JHCRReloadReport report = JHCROverrider.apply(batch.classes, batch.start);
+                    this.advanceJars(batch, report);
+                }
+                catch (Exception e)
+                {
+                    e.printStackTrace();
+                    JHCRLogger.warning("Error reloading changed files: " + e);
+                }
+            }
+        }
+        catch (InterruptedException e)
+        {
+            JHCRLogger.fine("Reload application stopped.");
+        }
+    }
+
+    /**
+     * Advances the snapshots of the jar entries whose class didn't fail, the others are read again the next time their jar changes.
+     */
+    private void advanceJars (Batch batch, JHCRReloadReport report)
+    {
+        if (batch.jarChanges.isEmpty())
+        {
+            return;
+        }
+
+        for (Outcome outcome : report.getOutcomes())
+        {
+            Change change = outcome.getClassName() == null ? null : batch.jarChanges.get(outcome.getClassName());
+
+            if (change != null && outcome.getResult() != Result.FAILED)
+            {
+                this.jars.advance(change);
+            }
+        }
+    }
+
+    /**
+     * Creates the executor preparing the changed files. Virtual threads are looked up reflectively, the agent also runs on Java 8.
+     */
+    private static ExecutorService createWorkers ()
+    {
+        try
+        {
+            ExecutorService executor = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            JHCRLogger.fine("Changed files are prepared on virtual threads.");
+            return executor;
+        }
+        catch (ReflectiveOperationException | RuntimeException e)
+        {
+            int threads = Runtime.getRuntime().availableProcessors();
+            JHCRLogger.fine("Changed files are prepared on " + threads + " threads.");
+
+            // The semaphore bounds the queued files.
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                    r -> newThread("JHCR reload worker", r));
+            executor.allowCoreThreadTimeOut(true);
+            return executor;
+        }
+    }
+
+    private static Thread newThread (String name, Runnable runnable)
+    {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2025, Illucrum LLC
+ *
+ * This file is part of JHCR.
+ *
+ * JHCR is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * JHCR is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with JHCR. If not, see <https://www.gnu.org/licenses/gpl-3.0.html>.
+ */
+package com.illucrum.tools.jhcr.watcher;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Outcome of a batch of class reloads, see {@link com.illucrum.tools.jhcr.watcher.JHCROverrider#overrideClasses(java.util.Collection)}.
+ * 
+ * @author Szymon Kokot
+ */
+public class JHCRReloadReport
+{
+    /**
+     * What happened to a reloaded class.
+     */
+    public enum Result
+    {
+        /** Redefined in place, with the other classes of the batch. */
+        REDEFINED,
+        /** Redefined in place on its own, after the batch redefinition failed. */
+        REDEFINED_ALONE,
+        /** Replaced by an override class, as its shape changed or the JVM rejected its redefinition, see {@link Outcome#getReason()}. */
+        OVERRIDDEN,
+        /** Not reloaded, as the class file is the same as the one applied last. */
+        UNCHANGED,
+        /** Not reloaded, e.g. a class not loaded yet or an empty class file. */
+        SKIPPED,
+        /** Reloading failed, e.g. the class file can't be read, see {@link Outcome#getReason()}. */
+        FAILED
+    }
+
+    /**
+     * The outcome of a single class.
+     */
+    public static class Outcome
+    {
+        private final String className;
+        private final Result result;
+        private final long nanos;
+        private final String reason;
+
+        Outcome (String className, Result result, long nanos, String reason)
+        {
+            this.className = className;
+            this.result = result;
+            this.nanos = nanos;
+            this.reason = reason;
+        }
+
+        /**
+         * @return the binary name of the class, or null if the bytecode couldn't be read
+         */
+        public String getClassName ()
+        {
+            return this.className;
+        }
+
+        /**
+         * @return what happened to the class
+         */
+        public Result getResult ()
+        {
+            return this.result;
+        }
+
+        /**
+         * @return why the class was overridden instead of redefined, or null
+         */
+        public String getReason ()
+        {
+            return this.reason;
+        }
+
+        /**
+         * @return the time spent on this class alone in nanoseconds, without its share of the batch redefinition
+         */
+        public long getNanos ()
+        {
+            return this.nanos;
+        }
+
+        @Override
+        public String toString ()
+        {
+            return this.className + ": " + this.result + " in " + TimeUnit.NANOSECONDS.toMicros(this.nanos) + "us"
+                    + (this.reason == null ? "" : " (" + this.reason + ")");
+        }
+    }
+
+    private final List<Outcome> outcomes = new ArrayList<>();
+    private long batchNanos;
+    private long totalNanos;
+
+    void add (String className, Result result, long nanos)
+    {
+        this.add(className, result, nanos, null);
+    }
+
+    void add (String className, Result result, long nanos, String reason)
+    {
+        this.outcomes.add(new Outcome(className, result, nanos, reason));
+    }
+
+    void setBatchNanos (long batchNanos)
+    {
+        this.batchNanos = batchNanos;
+    }
+
+    void setTotalNanos (long totalNanos)
+    {
+        this.totalNanos = totalNanos;
+    }
+
+    /**
+     * @return the outcome of every class of the batch
+     */
+    public List<Outcome> getOutcomes ()
+    {
+        return Collections.unmodifiableList(this.outcomes);
+    }
+
+    /**
+     * @param result
+     *            a result
+     * @return the number of classes with the given result
+     */
+    public int count (Result result)
+    {
+        int count = 0;
+
+        for (Outcome outcome : this.outcomes)
+        {
+            if (outcome.result == result)
+            {
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * @return the time spent in the single redefinition of the batch in nanoseconds
+     */
+    public long getBatchNanos ()
+    {
+        return this.batchNanos;
+    }
+
+    /**
+     * @return the time spent on the whole batch in nanoseconds
+     */
+    public long getTotalNanos ()
+    {
+        return this.totalNanos;
+    }
+
+    @Override
+    public String toString ()
+    {
+        String result = "JHCRReloadReport: " + this.outcomes.size() + " classes in " + TimeUnit.NANOSECONDS.toMicros(this.totalNanos)
+                + "us, batch redefinition " + TimeUnit.NANOSECONDS.toMicros(this.batchNanos) + "us\n";
+
+        for (Outcome outcome : this.outcomes)
+        {
+            result += "\t - " + outcome + "\n";
+        }
+
+        return result;
+    }
+}
@@ -0,0 +1,365 @@
+/*
+ * Copyright (C) 2025, Illucrum LLC
+ *
+ * This file is part of JHCR.
+ *
+ * JHCR is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * JHCR is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with JHCR. If not, see <https://www.gnu.org/licenses/gpl-3.0.html>.
+ */
+package com.illucrum.tools.jhcr.watcher;
+
+import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.monitor.FileAlterationListener;
+
+import com.illucrum.tools.jhcr.logger.JHCRLogger;
+
+/**
+ * Recursive, event driven watcher of a directory tree, built on a {@link java.nio.file.WatchService}. Subdirectories are registered as they appear.
+ * 
+ * <p>
+ * Events are delivered to the same {@link org.apache.commons.io.monitor.FileAlterationListener} as the polling monitor. Events arriving within a few
+ * milliseconds of each other are delivered together, once per file. Events of files the filter rejects, like logs written under the project, are dropped
+ * and don't hold the batch back, and no batch is held back longer than 200 milliseconds.
+ * </p>
+ * 
+ * <p>
+ * When the operating system drops events, the directory that lost them is scanned again, and the files modified since the previous batch are delivered.
+ * </p>
+ * 
+ * @author Szymon Kokot
+ */
+public class JHCRWatcher
+{
+    private static final String POLLING_SERVICE = "sun.nio.fs.PollingWatchService";
+    private static final long SETTLE_TIME = 20;
+    private static final long MAX_BATCH_LATENCY = 200;
+    // Some file systems only store modification times to the second, or to two seconds.
+    private static final long TIME_GRANULARITY = 2000;
+
+    private final Path root;
+    private final FileAlterationListener listener;
+    private final FileFilter filter;
+    private final WatchService watchService;
+    private final Map<WatchKey, Path> directories = new HashMap<>();
+    private final Set<Path> singleDirectories = new HashSet<>();
+    private long lastBatch;
+
+    /**
+     * Constructs a new {@link com.illucrum.tools.jhcr.watcher.JHCRWatcher}. Nothing is watched before {@link #register()} is called.
+     * 
+     * @param root
+     *            the root of the watched tree
+     * @param listener
+     *            the listener receiving file creations and changes
+     * @param filter
+     *            the files whose events are delivered
+     * @throws IOException
+     *             if the watch service can't be created
+     */
+    public JHCRWatcher (Path root, FileAlterationListener listener, FileFilter filter) throws IOException
+    {
+        this.root = root;
+        this.listener = listener;
+        this.filter = filter;
+        this.watchService = FileSystems.getDefault().newWatchService();
+    }
+
+    /**
+     * @return false if the watch service polls itself instead of being notified by the operating system
+     */
+    public boolean isNative ()
+    {
+        return !POLLING_SERVICE.equals(this.watchService.getClass().getName());
+    }
+
+    /**
+     * Registers the root and all its subdirectories.
+     * 
+     * @throws IOException
+     *             if a directory can't be registered, e.g. because the limit of watches is reached
+     */
+    public void register () throws IOException
+    {
+        this.lastBatch = System.currentTimeMillis();
+        this.registerAll(this.root, false);
+    }
+
+    /**
+     * Registers a single directory, without its subdirectories, e.g. a directory containing watched jars.
+     * 
+     * @param directory
+     *            the directory
+     * @throws IOException
+     *             if the directory can't be registered
+     */
+    public void registerDirectory (Path directory) throws IOException
+    {
+        this.singleDirectories.add(directory);
+        this.watch(directory);
+    }
+
+    private void watch (Path directory) throws IOException
+    {
+        WatchKey key = directory.register(this.watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        this.directories.put(key, directory);
+        JHCRLogger.finest("Watching: " + directory);
+    }
+
+    /**
+     * Delivers events to the listener until the watcher is closed or the thread interrupted.
+     */
+    public void run ()
+    {
+        try
+        {
+            while (true)
+            {
+                WatchKey key = this.watchService.take();
+                Map<Path, Boolean> batch = new LinkedHashMap<>();
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(MAX_BATCH_LATENCY);
+                long settled = System.nanoTime();
+
+                // Writing a class file fires several events, they are collected until the watched files settle, or the batch is due.
+                while (key != null)
+                {
+                    if (this.collect(key, batch))
+                    {
+                        settled = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(SETTLE_TIME);
+                    }
+
+                    long timeout = Math.min(settled, deadline) - System.nanoTime();
+                    key = timeout > 0 ? this.watchService.poll(timeout, TimeUnit.NANOSECONDS) : null;
+                }
+
+                if (batch.isEmpty())
+                {
+                    continue;
+                }
+
+                // Events lost after this point are found by a rescan.
+                this.lastBatch = System.currentTimeMillis();
+                this.dispatch(batch);
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        catch (ClosedWatchServiceException e)
+        {
+            JHCRLogger.fine("Watch service closed.");
+        }
+    }
+
+    /**
+     * Closes the watch service, {@link #run()} returns.
+     */
+    public void close ()
+    {
+        try
+        {
+            this.watchService.close();
+        }
+        catch (IOException e)
+        {
+            JHCRLogger.fine("Error closing the watch service: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Adds the events of a key to the batch.
+     * 
+     * @return true if an event of a watched file or a new directory was added
+     */
+    private boolean collect (WatchKey key, Map<Path, Boolean> batch)
+    {
+        Path directory = this.directories.get(key);
+        boolean added = false;
+
+        for (WatchEvent<?> event : key.pollEvents())
+        {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW)
+            {
+                Path rescanned = directory == null ? this.root : directory;
+                JHCRLogger.warning("Too many file events, rescanning: " + rescanned);
+                added |= this.rescan(rescanned, batch);
+                continue;
+            }
+
+            if (directory == null)
+            {
+                continue;
+            }
+
+            Path path = directory.resolve((Path) event.context());
+            boolean created = event.kind() == StandardWatchEventKinds.ENTRY_CREATE;
+
+            if (this.isWatched(path) || (created && Files.isDirectory(path)))
+            {
+                // A creation stays a creation when the file is also modified.
+                batch.merge(path, created, Boolean::logicalOr);
+                added = true;
+            }
+        }
+
+        if (!key.reset())
+        {
+            this.directories.remove(key);
+        }
+
+        return added;
+    }
+
+    private boolean isWatched (Path path)
+    {
+        return this.filter == null || this.filter.accept(path.toFile());
+    }
+
+    /**
+     * Adds the files modified since the previous batch to the batch, and returns true if any was added. Subdirectories are registered again, as their
+     * creation may have been lost too.
+     */
+    private boolean rescan (Path directory, Map<Path, Boolean> batch)
+    {
+        long since = this.lastBatch - TIME_GRANULARITY;
+        int size = batch.size();
+
+        try
+        {
+            if (this.singleDirectories.contains(directory))
+            {
+                try (DirectoryStream<Path> files = Files.newDirectoryStream(directory))
+                {
+                    for (Path file : files)
+                    {
+                        this.rescanFile(file, Files.readAttributes(file, BasicFileAttributes.class), since, batch);
+                    }
+                }
+
+                return batch.size() > size;
+            }
+
+            Files.walkFileTree(directory, new SimpleFileVisitor<Path>()
+            {
+                @Override
+                public FileVisitResult preVisitDirectory (Path dir, BasicFileAttributes attrs) throws IOException
+                {
+                    JHCRWatcher.this.watch(dir);
+
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile (Path file, BasicFileAttributes attrs)
+                {
+                    JHCRWatcher.this.rescanFile(file, attrs, since, batch);
+
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+        catch (IOException e)
+        {
+            JHCRLogger.warning("Could not rescan directory: " + directory + ": " + e.getMessage());
+        }
+
+        return batch.size() > size;
+    }
+
+    private void rescanFile (Path file, BasicFileAttributes attrs, long since, Map<Path, Boolean> batch)
+    {
+        if (attrs.isRegularFile() && attrs.lastModifiedTime().toMillis() >= since && this.isWatched(file))
+        {
+            batch.merge(file, attrs.creationTime().toMillis() >= since, Boolean::logicalOr);
+        }
+    }
+
+    private void dispatch (Map<Path, Boolean> batch)
+    {
+        this.listener.onStart(null);
+
+        for (Map.Entry<Path, Boolean> entry : batch.entrySet())
+        {
+            Path path = entry.getKey();
+
+            if (Files.isDirectory(path))
+            {
+                if (entry.getValue())
+                {
+                    try
+                    {
+                        // Files may have been written before the directory was registered.
+                        this.registerAll(path, true);
+                    }
+                    catch (IOException e)
+                    {
+                        JHCRLogger.warning("Could not watch directory: " + path + ": " + e.getMessage());
+                    }
+                }
+            }
+            else if (Files.isRegularFile(path))
+            {
+                if (entry.getValue())
+                {
+                    this.listener.onFileCreate(path.toFile());
+                }
+                else
+                {
+                    this.listener.onFileChange(path.toFile());
+                }
+            }
+        }
+
+        this.listener.onStop(null);
+    }
+
+    private void registerAll (Path start, boolean notify) throws IOException
+    {
+        Files.walkFileTree(start, new SimpleFileVisitor<Path>()
+        {
+            @Override
+            public FileVisitResult preVisitDirectory (Path dir, BasicFileAttributes attrs) throws IOException
+            {
+                JHCRWatcher.this.watch(dir);
+
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile (Path file, BasicFileAttributes attrs)
+            {
+                if (notify)
+                {
+                    JHCRWatcher.this.listener.onFileCreate(file.toFile());
+                }
+
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2025, Illucrum LLC
+ *
+ * This file is part of JHCR.
+ *
+ * JHCR is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * JHCR is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with JHCR. If not, see <https://www.gnu.org/licenses/gpl-3.0.html>.
+ */
+package com.illucrum.tools.jhcr.writer;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import com.illucrum.tools.jhcr.vars.JHCRVariables;
+
+/**
+ * Cheap first pass over a class, run before the {@link com.illucrum.tools.jhcr.writer.JHCRClassVisitor} pipeline. It tells which classes can be left
+ * untouched, and which methods of the others actually need their constructor calls rewritten.
+ * 
+ * @author Szymon Kokot
+ */
+public class JHCRClassScanner implements JHCRVariables
+{
+    private static final int CONSTANT_CLASS = 7;
+
+    /**
+     * Checks the class header and constant pool only. A class needs the full transformation if it is a class loader, an override class, or if it refers to
+     * a type whose constructor calls are rewritten.
+     * 
+     * @param reader
+     *            the reader of the class
+     * @param suffix
+     *            the suffix of override classes
+     * @return false if the class can be left untouched
+     */
+    public static boolean needsTransform (ClassReader reader, String suffix)
+    {
+        String superName = reader.getSuperName();
+
+        if (LOADER_NAME.equals(superName) || URL_LOADER_NAME.equals(superName) || reader.getClassName().contains(suffix))
+        {
+            return true;
+        }
+
+        char[] buffer = new char[reader.getMaxStringLength()];
+
+        for (int i = 1; i < reader.getItemCount(); i++)
+        {
+            int offset = reader.getItem(i);
+
+            // The second slot of long and double constants has no offset.
+            if (offset == 0 || reader.readByte(offset - 1) != CONSTANT_CLASS)
+            {
+                continue;
+            }
+
+            String type = reader.readUTF8(offset, buffer);
+
+            if (type.charAt(0) != '[' && JHCRTypeFilter.isRewritable(type))
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Checks if the class directly extends {@link java.lang.ClassLoader} or {@link java.net.URLClassLoader}, without already implementing
+     * {@link com.illucrum.tools.jhcr.loader.JHCRCustomLoader}.
+     * 
+     * @param reader
+     *            the reader of the class
+     * @return true if the class is a loader to be instrumented
+     */
+    public static boolean isLoader (ClassReader reader)
+    {
+        String superName = reader.getSuperName();
+
+        if (!LOADER_NAME.equals(superName) && !URL_LOADER_NAME.equals(superName))
+        {
+            return false;
+        }
+
+        for (String i : reader.getInterfaces())
+        {
+            if (i.equals(CUSTOM_LOADER_NAME))
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Scans the code of every method, skipping debug information and frames, for NEW instructions of types whose constructor calls are rewritten.
+     * 
+     * @param reader
+     *            the reader of the class
+     * @return the name and descriptor of every method containing such instructions
+     */
+    public static Set<String> getRewrittenMethods (ClassReader reader)
+    {
+        final Set<String> methods = new HashSet<>();
+
+        reader.accept(new ClassVisitor(API)
+        {
+            @Override
+            public MethodVisitor visitMethod (int access, final String name, final String desc, String signature, String[] exceptions)
+            {
+                return new MethodVisitor(API)
+                {
+                    @Override
+                    public void visitTypeInsn (int opcode, String type)
+                    {
+                        if (opcode == Opcodes.NEW && JHCRTypeFilter.isRewritable(type))
+                        {
+                            methods.add(name + desc);
+                        }
+                    }
+                };
+            }
+        }, ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+
+        return methods;
+    }
+}
@@ -0,0 +1,273 @@
+/*
+ * Copyright (C) 2025, Illucrum LLC
+ *
+ * This file is part of JHCR.
+ *
+ * JHCR is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * JHCR is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with JHCR. If not, see <https://www.gnu.org/licenses/gpl-3.0.html>.
+ */
+package com.illucrum.tools.jhcr.writer;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.RecordComponentVisitor;
+
+import com.sun.management.HotSpotDiagnosticMXBean;
+
+import com.illucrum.tools.jhcr.vars.JHCRVariables;
+
+/**
+ * The shape of a class: everything {@link java.lang.instrument.Instrumentation#redefineClasses(java.lang.instrument.ClassDefinition...)} doesn't allow to
+ * change. That is the class modifiers, super class and interfaces, the fields in their order, the methods with their modifiers, and the nest and record
+ * attributes.
+ * 
+ * <p>
+ * Private methods that are static or final, such as the methods holding lambda bodies, may be added or removed where HotSpot allows it: before Java 13, or
+ * with <code>-XX:+AllowRedefinitionToAddDeleteMethods</code>.
+ * </p>
+ * 
+ * <p>
+ * Comparing the shapes of two versions of a class tells whether the class can be redefined, or needs an override, without asking the JVM.
+ * </p>
+ * 
+ * @author Szymon Kokot
+ */
+public class JHCRClassShape extends ClassVisitor implements JHCRVariables
+{
+    // ASM pseudo flags, like ACC_DEPRECATED, are above the class file flags, ACC_SUPER is ignored by the JVM.
+    private static final int CLASS_ACCESS_MASK = 0xFFFF & ~Opcodes.ACC_SUPER;
+    private static final int MEMBER_ACCESS_MASK = 0xFFFF;
+    private static final String ADD_DELETE_METHODS_OPTION = "AllowRedefinitionToAddDeleteMethods";
+    private static final int STRICT_REDEFINITION_VERSION = 13;
+
+    private static volatile Boolean privateMethodsReplaceable = null;
+
+    private int access;
+    private String superName;
+    private List<String> interfaces = Collections.emptyList();
+    private final List<String> fields = new ArrayList<>();
+    private final Map<String, Integer> methods = new HashMap<>();
+    private final List<String> attributes = new ArrayList<>();
+
+    private JHCRClassShape ()
+    {
+        super(API);
+    }
+
+    /**
+     * Reads the shape of a class, without its code.
+     * 
+     * @param reader
+     *            the reader of the class file
+     * @return the shape
+     */
+    public static JHCRClassShape of (ClassReader reader)
+    {
+        JHCRClassShape shape = new JHCRClassShape();
+        reader.accept(shape, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+
+        return shape;
+    }
+
+    @Override
+    public void visit (int version, int access, String name, String signature, String superName, String[] interfaces)
+    {
+        this.access = access & CLASS_ACCESS_MASK;
+        this.superName = superName;
+        this.interfaces = interfaces == null ? Collections.emptyList() : Arrays.asList(interfaces);
+    }
+
+    @Override
+    public void visitNestHost (String nestHost)
+    {
+        this.attributes.add("nest host " + nestHost);
+    }
+
+    @Override
+    public void visitNestMember (String nestMember)
+    {
+        this.attributes.add("nest member " + nestMember);
+    }
+
+    @Override
+    public void visitPermittedSubclass (String permittedSubclass)
+    {
+        this.attributes.add("permitted subclass " + permittedSubclass);
+    }
+
+    @Override
+    public RecordComponentVisitor visitRecordComponent (String name, String descriptor, String signature)
+    {
+        this.attributes.add("record component " + name + " " + descriptor);
+
+        return null;
+    }
+
+    @Override
+    public FieldVisitor visitField (int access, String name, String descriptor, String signature, Object value)
+    {
+        this.fields.add((access & MEMBER_ACCESS_MASK) + " " + name + " " + descriptor);
+
+        return null;
+    }
+
+    @Override
+    public MethodVisitor visitMethod (int access, String name, String descriptor, String signature, String[] exceptions)
+    {
+        this.methods.put(name + descriptor, access & MEMBER_ACCESS_MASK);
+
+        return null;
+    }
+
+    /**
+     * Compares this shape with the one of a newer version of the class.
+     * 
+     * @param newer
+     *            the shape of the newer version
+     * @return why the newer version can't be redefined, or null if it can
+     */
+    public String diff (JHCRClassShape newer)
+    {
+        return this.diff(newer, isPrivateMethodsReplaceable());
+    }
+
+    /**
+     * Compares this shape with the one of a newer version of the class.
+     * 
+     * @param newer
+     *            the shape of the newer version
+     * @param replaceable
+     *            true if private methods that are static or final may be added or removed
+     * @return why the newer version can't be redefined, or null if it can
+     */
+    String diff (JHCRClassShape newer, boolean replaceable)
+    {
+        if (this.access != newer.access)
+        {
+            return "class modifiers changed";
+        }
+
+        if (!Objects.equals(this.superName, newer.superName))
+        {
+            return "super class changed to " + newer.superName;
+        }
+
+        if (!this.interfaces.equals(newer.interfaces))
+        {
+            return "interfaces changed to " + newer.interfaces;
+        }
+
+        if (!this.fields.equals(newer.fields))
+        {
+            return diffFields(newer);
+        }
+
+        for (Map.Entry<String, Integer> method : newer.methods.entrySet())
+        {
+            Integer access = this.methods.get(method.getKey());
+
+            if (access == null)
+            {
+                if (!replaceable || !isReplaceable(method.getValue()))
+                {
+                    return "method added: " + method.getKey();
+                }
+
+                continue;
+            }
+
+            if (!access.equals(method.getValue()))
+            {
+                return "method modifiers changed: " + method.getKey();
+            }
+        }
+
+        for (Map.Entry<String, Integer> method : this.methods.entrySet())
+        {
+            if (!newer.methods.containsKey(method.getKey()) && (!replaceable || !isReplaceable(method.getValue())))
+            {
+                return "method removed: " + method.getKey();
+            }
+        }
+
+        if (!this.attributes.equals(newer.attributes))
+        {
+            return "nest or record attributes changed";
+        }
+
+        return null;
+    }
+
+    private static boolean isReplaceable (int access)
+    {
+        return (access & Opcodes.ACC_PRIVATE) != 0 && (access & (Opcodes.ACC_STATIC | Opcodes.ACC_FINAL)) != 0;
+    }
+
+    /**
+     * Since Java 13, HotSpot only adds or removes private methods with <code>-XX:+AllowRedefinitionToAddDeleteMethods</code>.
+     */
+    private static boolean isPrivateMethodsReplaceable ()
+    {
+        if (privateMethodsReplaceable == null)
+        {
+            String version = System.getProperty("java.specification.version");
+
+            if (version.startsWith("1.") || Integer.parseInt(version) < STRICT_REDEFINITION_VERSION)
+            {
+                privateMethodsReplaceable = true;
+            }
+            else
+            {
+                try
+                {
+                    HotSpotDiagnosticMXBean diagnostic = ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class);
+                    privateMethodsReplaceable = Boolean.parseBoolean(diagnostic.getVMOption(ADD_DELETE_METHODS_OPTION).getValue());
+                }
+                catch (RuntimeException | LinkageError e)
+                {
+                    privateMethodsReplaceable = false;
+                }
+            }
+        }
+
+        return privateMethodsReplaceable;
+    }
+
+    private String diffFields (JHCRClassShape newer)
+    {
+        for (String field : newer.fields)
+        {
+            if (!this.fields.contains(field))
+            {
+                return "field added or modifiers changed: " + field.substring(field.indexOf(' ') + 1);
+            }
+        }
+
+        for (String field : this.fields)
+        {
+            if (!newer.fields.contains(field))
+            {
+                return "field removed: " + field.substring(field.indexOf(' ') + 1);
+            }
+        }
+
+        return "fields reordered";
+    }
+}
@@ -13,15 +13,18 @@
  */
 package com.illucrum.tools.jhcr.writer;
 
+import java.util.Set;
 import java.util.regex.Pattern;
 
 import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.commons.AnalyzerAdapter;
 
 import com.illucrum.tools.jhcr.JHCRAgent;
 import com.illucrum.tools.jhcr.logger.JHCRLogger;
+import com.illucrum.tools.jhcr.repo.JHCRHierarchyRepository;
 import com.illucrum.tools.jhcr.vars.JHCRVariables;
 
 /**
@@ -33,8 +36,13 @@ import com.illucrum.tools.jhcr.vars.JHCRVariables;
 public class JHCRClassVisitor extends ClassVisitor implements JHCRVariables
 {
     private final String suffix;
+    private final boolean dynamic;
+    private final Set<String> methods;
+    private final ClassLoader definingLoader;
+    private String className;
     private String superName = null;
     private boolean loader = false;
+    private boolean indy = false;
 
     /**
      * Calls super ({@link org.objectweb.asm.ClassVisitor#ClassVisitor(int, ClassVisitor)}) with ASM9 opcode and the same class visitor.
@@ -44,9 +52,42 @@ public class JHCRClassVisitor extends ClassVisitor implements JHCRVariables
      * @see org.objectweb.asm.ClassVisitor#ClassVisitor(int, ClassVisitor)
      */
     public JHCRClassVisitor (ClassVisitor classVisitor)
+    {
+        this(classVisitor, null);
+    }
+
+    /**
+     * Calls super ({@link org.objectweb.asm.ClassVisitor#ClassVisitor(int, ClassVisitor)}) with ASM9 opcode and the same class visitor. Constructor calls
+     * are only rewritten in the given methods.
+     * 
+     * @param classVisitor
+     * @param methods
+     *            name and descriptor of the methods whose constructor calls are rewritten, or null for all of them
+     * 
+     * @see com.illucrum.tools.jhcr.writer.JHCRClassScanner#getRewrittenMethods(org.objectweb.asm.ClassReader)
+     */
+    public JHCRClassVisitor (ClassVisitor classVisitor, Set<String> methods)
+    {
+        this(classVisitor, methods, null);
+    }
+
+    /**
+     * Calls super ({@link org.objectweb.asm.ClassVisitor#ClassVisitor(int, ClassVisitor)}) with ASM9 opcode and the same class visitor. Constructor calls
+     * are only rewritten in the given methods.
+     * 
+     * @param classVisitor
+     * @param methods
+     *            name and descriptor of the methods whose constructor calls are rewritten, or null for all of them
+     * @param definingLoader
+     *            the loader defining the class, its hierarchy is stored for it
+     */
+    public JHCRClassVisitor (ClassVisitor classVisitor, Set<String> methods, ClassLoader definingLoader)
     {
         super(API, classVisitor);
         this.suffix = JHCRAgent.preferences.get("jhcr.suffix");
+        this.dynamic = INDY_MODE.equals(JHCRAgent.preferences.get("jhcr.constructor.mode"));
+        this.methods = methods;
+        this.definingLoader = definingLoader;
     }
 
     @Override
@@ -55,6 +96,10 @@ public class JHCRClassVisitor extends ClassVisitor implements JHCRVariables
         JHCRLogger.finer("Class visit: " + name + " " + signature + " " + superName);
         String finalSuperName = superName;
         String[] finalInterfaces = null;
+        this.className = name;
+
+        // invokedynamic is only available since Java 7 class files
+        this.indy = this.dynamic && (version & 0xFFFF) >= Opcodes.V1_7;
 
         if (superName.equals(LOADER_NAME) || superName.equals(URL_LOADER_NAME))
         {
@@ -85,6 +130,9 @@ public class JHCRClassVisitor extends ClassVisitor implements JHCRVariables
 
         JHCRLogger.finer("Final interface added: " + (finalInterfaces == null ? "null" : finalInterfaces[interfaces.length]));
 
+        // The class being written may not be on the class path, e.g. an override class.
+        JHCRHierarchyRepository.put(this.definingLoader, name, access, finalSuperName, finalInterfaces == null ? interfaces : finalInterfaces);
+
         super.visit(version, access, name, signature, finalSuperName, finalInterfaces == null ? interfaces : finalInterfaces);
     }
 
@@ -92,23 +140,28 @@ public class JHCRClassVisitor extends ClassVisitor implements JHCRVariables
     public MethodVisitor visitMethod (int access, String name, String desc, String signature, String[] exceptions)
     {
         MethodVisitor mv = super.visitMethod(access, name, desc, signature, exceptions);
-        AnalyzerAdapter analyzer = new AnalyzerAdapter(name, access, name, desc, mv);
         if (this.superName != null && name.equals("<init>"))
         {
             JHCRLogger.finer("Class visit method to change type: " + name + " " + desc + " " + signature);
-            return new JHCRTypeRewriter(analyzer, this.superName);
+            return new JHCRTypeRewriter(new AnalyzerAdapter(name, access, name, desc, mv), this.superName);
+        }
+
+        if (this.loader && name.equals(INIT_NAME))
+        {
+            JHCRLogger.finer("Class visit method to initialize the repository shard: " + desc);
+            return new JHCRShardRewriter(mv, access, desc, this.className);
         }
 
         if (this.loader && name.equals(LOAD_NAME) && desc.equals(LOAD_DESC))
         {
             JHCRLogger.finer("Class visit method to modify loadClass");
-            return new JHCRLoadRewriter(analyzer);
+            return new JHCRLoadRewriter(new AnalyzerAdapter(name, access, name, desc, mv), this.className);
         }
 
-        if (!this.loader)
+        if (!this.loader && (this.methods == null || this.methods.contains(name + desc)))
         {
             JHCRLogger.finer("Class visit method to rewrite constructors: " + name + " " + desc + " " + signature);
-            return new JHCRInitRewriter(analyzer, name);
+            return new JHCRInitRewriter(new AnalyzerAdapter(name, access, name, desc, mv), name, this.indy);
         }
 
         return mv;
@@ -119,7 +172,19 @@ public class JHCRClassVisitor extends ClassVisitor implements JHCRVariables
     {
         if (this.loader)
         {
-            MethodVisitor mv = super.visitMethod(Opcodes.ACC_PUBLIC, DEFINE_WRAPPER_NAME, DEFINE_WRAPPER_DESC, null, null);
+            // The classes stored for the loader, see JHCRCustomRepository
+            FieldVisitor fv = super.visitField(Opcodes.ACC_PRIVATE | Opcodes.ACC_SYNTHETIC, SHARD_FIELD_NAME, SHARD_DESC, null, null);
+            fv.visitEnd();
+
+            MethodVisitor mv = super.visitMethod(Opcodes.ACC_PUBLIC, SHARD_GETTER_NAME, SHARD_GETTER_DESC, null, null);
+            mv.visitCode();
+            mv.visitVarInsn(Opcodes.ALOAD, 0);
+            mv.visitFieldInsn(Opcodes.GETFIELD, this.className, SHARD_FIELD_NAME, SHARD_DESC);
+            mv.visitInsn(Opcodes.ARETURN);
+            mv.visitMaxs(1, 1);
+            mv.visitEnd();
+
+            mv = super.visitMethod(Opcodes.ACC_PUBLIC, DEFINE_WRAPPER_NAME, DEFINE_WRAPPER_DESC, null, null);
             mv.visitCode();
             mv.visitVarInsn(Opcodes.ALOAD, 0);
             mv.visitVarInsn(Opcodes.ALOAD, 1);
@@ -136,6 +201,23 @@ public class JHCRClassVisitor extends ClassVisitor implements JHCRVariables
             mv.visitInsn(Opcodes.ARETURN);
             mv.visitMaxs(4, 5);
             mv.visitEnd();
+
+            mv = super.visitMethod(Opcodes.ACC_PUBLIC, DEFINE_WRAPPER_NAME, DEFINE_BUFFER_WRAPPER_DESC, null, null);
+            mv.visitCode();
+            mv.visitVarInsn(Opcodes.ALOAD, 0);
+            mv.visitVarInsn(Opcodes.ALOAD, 1);
+            mv.visitVarInsn(Opcodes.ALOAD, 2);
+            mv.visitVarInsn(Opcodes.ALOAD, 3);
+            mv
+                    .visitMethodInsn(
+                            Opcodes.INVOKEVIRTUAL,
+                            "java/lang/ClassLoader",
+                            "defineClass",
+                            "(Ljava/lang/String;Ljava/nio/ByteBuffer;Ljava/security/ProtectionDomain;)Ljava/lang/Class;",
+                            false);
+            mv.visitInsn(Opcodes.ARETURN);
+            mv.visitMaxs(4, 4);
+            mv.visitEnd();
         }
 
         super.visitEnd();
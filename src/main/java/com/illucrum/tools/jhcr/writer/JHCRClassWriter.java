@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2025, Illucrum LLC
+ *
+ * This file is part of JHCR.
+ *
+ * JHCR is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * JHCR is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with JHCR. If not, see <https://www.gnu.org/licenses/gpl-3.0.html>.
+ */
+package com.illucrum.tools.jhcr.writer;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+
+import com.illucrum.tools.jhcr.logger.JHCRLogger;
+import com.illucrum.tools.jhcr.repo.JHCRHierarchyRepository;
+import com.illucrum.tools.jhcr.repo.JHCRHierarchyRepository.Node;
+import com.illucrum.tools.jhcr.vars.JHCRVariables;
+
+/**
+ * Class writer that computes common super classes from {@link com.illucrum.tools.jhcr.repo.JHCRHierarchyRepository} instead of loading the classes.
+ * 
+ * <p>
+ * Only if the class file of a type can't be found, it falls back to {@link org.objectweb.asm.ClassWriter#getCommonSuperClass(String, String)}.
+ * </p>
+ * 
+ * <p>
+ * The writer remembers if the frames it computed depend on the hierarchy of other classes, see {@link #usesHierarchy()}.
+ * </p>
+ * 
+ * @author Szymon Kokot
+ */
+public class JHCRClassWriter extends ClassWriter implements JHCRVariables
+{
+    private final ClassLoader loader;
+    private boolean usesHierarchy = false;
+
+    /**
+     * Calls super ({@link org.objectweb.asm.ClassWriter#ClassWriter(ClassReader, int)}).
+     * 
+     * @param classReader
+     *            the reader of the original class
+     * @param flags
+     *            the ASM class writer flags
+     * @param loader
+     *            the loader defining the class being written
+     */
+    public JHCRClassWriter (ClassReader classReader, int flags, ClassLoader loader)
+    {
+        super(classReader, flags);
+        this.loader = loader;
+    }
+
+    @Override
+    protected ClassLoader getClassLoader ()
+    {
+        return this.loader == null ? super.getClassLoader() : this.loader;
+    }
+
+    @Override
+    protected String getCommonSuperClass (String type1, String type2)
+    {
+        if (OBJECT_NAME.equals(type1) || OBJECT_NAME.equals(type2))
+        {
+            return OBJECT_NAME;
+        }
+
+        this.usesHierarchy = true;
+        Node node1 = JHCRHierarchyRepository.get(type1, this.loader);
+        Node node2 = JHCRHierarchyRepository.get(type2, this.loader);
+
+        if (node1 == null || node2 == null)
+        {
+            JHCRLogger.finer("Hierarchy unknown, loading classes: " + type1 + " " + type2);
+            return super.getCommonSuperClass(type1, type2);
+        }
+
+        try
+        {
+            if (isAssignableFrom(type1, type2))
+            {
+                return type1;
+            }
+
+            if (isAssignableFrom(type2, type1))
+            {
+                return type2;
+            }
+
+            if (node1.isInterface() || node2.isInterface())
+            {
+                return OBJECT_NAME;
+            }
+
+            String type = node1.getSuperName();
+
+            while (type != null && !isAssignableFrom(type, type2))
+            {
+                type = getNode(type).getSuperName();
+            }
+
+            return type == null ? OBJECT_NAME : type;
+        }
+        catch (IllegalStateException e)
+        {
+            JHCRLogger.finer(e.getMessage() + ", loading classes: " + type1 + " " + type2);
+            return super.getCommonSuperClass(type1, type2);
+        }
+    }
+
+    /**
+     * @return true if a common super class of two other types was computed, so the bytecode written is only valid for their current hierarchy
+     */
+    public boolean usesHierarchy ()
+    {
+        return this.usesHierarchy;
+    }
+
+    private boolean isAssignableFrom (String target, String type)
+    {
+        if (target.equals(type))
+        {
+            return true;
+        }
+
+        Node node = getNode(type);
+
+        if (node.getSuperName() != null && isAssignableFrom(target, node.getSuperName()))
+        {
+            return true;
+        }
+
+        for (String i : node.getInterfaces())
+        {
+            if (isAssignableFrom(target, i))
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private Node getNode (String type)
+    {
+        Node node = JHCRHierarchyRepository.get(type, this.loader);
+
+        if (node == null)
+        {
+            throw new IllegalStateException("Hierarchy unknown: " + type);
+        }
+
+        return node;
+    }
+}
@@ -13,6 +13,10 @@
  */
 package com.illucrum.tools.jhcr.writer;
 
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import org.objectweb.asm.Handle;
 import org.objectweb.asm.Label;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
@@ -23,25 +27,33 @@ import com.illucrum.tools.jhcr.logger.JHCRLogger;
 import com.illucrum.tools.jhcr.vars.JHCRVariables;
 
 /**
- * This method visitor is responsible of rewriting constructor calls to call {@link com.illucrum.tools.jhcr.loader.JHCRConstructor#construct(String, Class<?>[],
- * Object[])} instead.
+ * This method visitor is responsible of rewriting constructor calls to call {@link com.illucrum.tools.jhcr.loader.JHCRConstructor#construct(String, String,
+ * Object[])} instead, or to <code>invokedynamic</code> call sites bootstrapped by {@link com.illucrum.tools.jhcr.loader.JHCRConstructorSite}.
  * 
  * @author Szymon Kokot
  */
 class JHCRInitRewriter extends MethodVisitor implements JHCRVariables
 {
+    private static final Handle BOOTSTRAP = new Handle(Opcodes.H_INVOKESTATIC, CONSTRUCTOR_SITE_NAME, BOOTSTRAP_NAME, BOOTSTRAP_DESC, false);
+
+    private final boolean indy;
     private int currentLine = -1;
     private String type = null;
+    private final Deque<Boolean> rewritten = new ArrayDeque<>();
 
     /**
      * Constructs a new {@link com.illucrum.tools.jhcr.writer.JHCRInitRewriter}.
      * 
      * @param mv
      * @param methodName
+     * @param indy
+     *            if true, constructor calls are rewritten to <code>invokedynamic</code> call sites of
+     *            {@link com.illucrum.tools.jhcr.loader.JHCRConstructorSite}
      */
-    public JHCRInitRewriter (AnalyzerAdapter mv, String methodName)
+    public JHCRInitRewriter (AnalyzerAdapter mv, String methodName, boolean indy)
     {
         super(Opcodes.ASM9, mv);
+        this.indy = indy;
     }
 
     @Override
@@ -55,11 +67,18 @@ class JHCRInitRewriter extends MethodVisitor implements JHCRVariables
     public void visitTypeInsn (int opcode, String type)
     {
         JHCRLogger.finer("Method type insn: " + opcode + " " + type);
-        if (opcode == Opcodes.NEW && !type.equals(OBJECT_NAME))
+        this.restoreHanging();
+
+        if (opcode == Opcodes.NEW)
         {
-            JHCRLogger.finer("NEW opcode, not Object");
-            this.type = type;
-            return;
+            if (JHCRTypeFilter.isRewritable(type))
+            {
+                JHCRLogger.finer("NEW opcode, reloadable type");
+                this.type = type;
+                return;
+            }
+
+            this.rewritten.push(Boolean.FALSE);
         }
 
         super.visitTypeInsn(opcode, type);
@@ -70,19 +89,15 @@ class JHCRInitRewriter extends MethodVisitor implements JHCRVariables
     {
         JHCRLogger.finer("Method insn: " + opcode);
 
-        if (this.isHanging())
+        if (this.isHanging() && opcode == Opcodes.DUP)
         {
-            if (opcode == Opcodes.DUP)
-            {
-                JHCRLogger.finer("Skipping DUP");
-                return;
-            }
-            else
-            {
-                super.visitTypeInsn(Opcodes.NEW, this.type);
-            }
+            JHCRLogger.finer("Skipping DUP");
+            this.type = null;
+            this.rewritten.push(Boolean.TRUE);
+            return;
         }
 
+        this.restoreHanging();
         super.visitInsn(opcode);
     }
 
@@ -90,10 +105,12 @@ class JHCRInitRewriter extends MethodVisitor implements JHCRVariables
     public void visitMethodInsn (int opcode, String owner, String name, String desc, boolean itf)
     {
         JHCRLogger.finer("Method visit: " + owner + " " + name + " " + desc);
-        if (opcode == Opcodes.INVOKESPECIAL && name.equals("<init>") && this.isHanging())
+        this.restoreHanging();
+
+        // super() and this() calls are not preceded by a NEW, so they find the stack empty
+        if (opcode == Opcodes.INVOKESPECIAL && name.equals("<init>") && !this.rewritten.isEmpty() && this.rewritten.pop())
         {
             JHCRLogger.finer("Rewriting constructor...");
-            this.type = null;
             this.rewriteConstructor(owner, desc);
             return;
         }
@@ -111,32 +128,56 @@ class JHCRInitRewriter extends MethodVisitor implements JHCRVariables
         }
 
         JHCRLogger.finest("owner: " + owner + "; desc: " + desc);
-        mv.visitLdcInsn(owner.replace('/', '.'));
 
         Type[] argTypes = Type.getArgumentTypes(desc);
 
-        this.pushInt(mv, argTypes.length);
-        mv.visitTypeInsn(Opcodes.ANEWARRAY, CLASS_NAME);
+        if (this.indy)
+        {
+            mv.visitInvokeDynamicInsn(CONSTRUCT_NAME, Type.getMethodDescriptor(Type.getObjectType(owner), argTypes), BOOTSTRAP);
+            return;
+        }
+
+        String specializedDesc = this.getSpecializedDesc(argTypes);
 
-        for (int i = 0; i < argTypes.length; i++)
+        if (specializedDesc != null)
         {
-            mv.visitInsn(Opcodes.DUP);
-            this.pushInt(mv, i);
-            this.pushClassLiteral(mv, argTypes[i]);
-            mv.visitInsn(Opcodes.AASTORE);
+            mv.visitLdcInsn(owner.replace('/', '.'));
+            mv.visitLdcInsn(desc);
+            mv.visitMethodInsn(Opcodes.INVOKESTATIC, CONSTRUCTOR_NAME, CONSTRUCT_NAME + argTypes.length, specializedDesc, false);
+            mv.visitTypeInsn(Opcodes.CHECKCAST, owner);
+            return;
         }
 
+        // The arguments are already on the stack, so they are packed from the last one: [.., arg, array] -> [.., array]
         this.pushInt(mv, argTypes.length);
         mv.visitTypeInsn(Opcodes.ANEWARRAY, OBJECT_NAME);
 
-        for (int i = 0; i < argTypes.length; i++)
+        for (int i = argTypes.length - 1; i >= 0; i--)
         {
-            mv.visitInsn(Opcodes.DUP);
-            this.pushInt(mv, i);
+            if (argTypes[i].getSize() == 2)
+            {
+                mv.visitInsn(Opcodes.DUP_X2);
+                mv.visitInsn(Opcodes.POP);
+            }
+            else
+            {
+                mv.visitInsn(Opcodes.SWAP);
+            }
+
             this.box(mv, argTypes[i]);
+            mv.visitInsn(Opcodes.SWAP);
+            mv.visitInsn(Opcodes.DUP_X1);
+            mv.visitInsn(Opcodes.SWAP);
+            this.pushInt(mv, i);
+            mv.visitInsn(Opcodes.SWAP);
             mv.visitInsn(Opcodes.AASTORE);
         }
 
+        mv.visitLdcInsn(owner.replace('/', '.'));
+        mv.visitInsn(Opcodes.SWAP);
+        mv.visitLdcInsn(desc);
+        mv.visitInsn(Opcodes.SWAP);
+
         mv
                 .visitMethodInsn(
                         Opcodes.INVOKESTATIC,
@@ -148,50 +189,72 @@ class JHCRInitRewriter extends MethodVisitor implements JHCRVariables
         mv.visitTypeInsn(Opcodes.CHECKCAST, owner);
     }
 
-    private void pushInt (MethodVisitor mv, int i)
+    /**
+     * Returns the descriptor of the arity specialized <code>constructN</code> method matching the given constructor arguments, or null if there is none.
+     * Specialized methods exist for up to four reference arguments, and for one or two arguments of the same primitive kind, where <code>boolean</code>,
+     * <code>byte</code>, <code>char</code> and <code>short</code> are passed as <code>int</code>.
+     */
+    private String getSpecializedDesc (Type[] argTypes)
     {
-        if (i >= -1 && i <= 5)
-        {
-            mv.visitInsn(Opcodes.ICONST_0 + i);
-        }
-        else if (i <= 127)
+        StringBuilder desc = new StringBuilder("(");
+        String kind = null;
+
+        for (Type t : argTypes)
         {
-            mv.visitIntInsn(Opcodes.BIPUSH, i);
+            String argKind = this.getSpecializedKind(t);
+
+            if (argKind == null || (kind != null && !kind.equals(argKind)))
+            {
+                return null;
+            }
+
+            kind = argKind;
+            desc.append(argKind);
         }
-        else
+
+        if (argTypes.length > (kind == null || kind.equals(OBJECT_DESC) ? CONSTRUCT_REFERENCE_ARITY : CONSTRUCT_PRIMITIVE_ARITY))
         {
-            mv.visitLdcInsn(i);
+            return null;
         }
+
+        return desc.append(CONSTRUCT_SPECIALIZED_DESC).toString();
     }
 
-    private void pushClassLiteral (MethodVisitor mv, Type t)
+    private String getSpecializedKind (Type t)
     {
         switch (t.getSort())
         {
+            case Type.OBJECT:
+            case Type.ARRAY:
+                return OBJECT_DESC;
             case Type.BOOLEAN:
-                mv.visitFieldInsn(Opcodes.GETSTATIC, "java/lang/Boolean", "TYPE", CLASS_DESC);
-                break;
             case Type.BYTE:
-                mv.visitFieldInsn(Opcodes.GETSTATIC, "java/lang/Byte", "TYPE", CLASS_DESC);
-                break;
             case Type.CHAR:
-                mv.visitFieldInsn(Opcodes.GETSTATIC, "java/lang/Character", "TYPE", CLASS_DESC);
-                break;
-            case Type.DOUBLE:
-                mv.visitFieldInsn(Opcodes.GETSTATIC, "java/lang/Double", "TYPE", CLASS_DESC);
-                break;
-            case Type.FLOAT:
-                mv.visitFieldInsn(Opcodes.GETSTATIC, "java/lang/Float", "TYPE", CLASS_DESC);
-                break;
+            case Type.SHORT:
             case Type.INT:
-                mv.visitFieldInsn(Opcodes.GETSTATIC, "java/lang/Integer", "TYPE", CLASS_DESC);
-                break;
+                return "I";
             case Type.LONG:
-                mv.visitFieldInsn(Opcodes.GETSTATIC, "java/lang/Long", "TYPE", CLASS_DESC);
-                break;
-            case Type.SHORT:
-                mv.visitFieldInsn(Opcodes.GETSTATIC, "java/lang/Short", "TYPE", CLASS_DESC);
-                break;
+                return "J";
+            case Type.DOUBLE:
+                return "D";
+        }
+
+        return null;
+    }
+
+    private void pushInt (MethodVisitor mv, int i)
+    {
+        if (i >= -1 && i <= 5)
+        {
+            mv.visitInsn(Opcodes.ICONST_0 + i);
+        }
+        else if (i <= 127)
+        {
+            mv.visitIntInsn(Opcodes.BIPUSH, i);
+        }
+        else
+        {
+            mv.visitLdcInsn(i);
         }
     }
 
@@ -234,4 +297,17 @@ class JHCRInitRewriter extends MethodVisitor implements JHCRVariables
     private boolean isHanging() {
         return this.type != null;
     }
+
+    /**
+     * A NEW that is not followed by a DUP can't be rewritten, so it is written back as is.
+     */
+    private void restoreHanging ()
+    {
+        if (this.isHanging())
+        {
+            super.visitTypeInsn(Opcodes.NEW, this.type);
+            this.type = null;
+            this.rewritten.push(Boolean.FALSE);
+        }
+    }
 }
@@ -23,35 +23,57 @@ import com.illucrum.tools.jhcr.vars.JHCRVariables;
 /**
  * Method visitor responsible for bytecode manipulation in the {@link java.lang.ClassLoader#loadClass(String, boolean)} methods of custom class loaders.
  * 
+ * <p>
+ * The prologue reads the repository shard field of the loader directly, and returns the stored class if there is one. Before each return, classes defined
+ * by the loader itself are recorded, see {@link com.illucrum.tools.jhcr.repo.JHCRCustomRepository#record(Class, ClassLoader, String)}.
+ * </p>
+ * 
  * @author Szymon Kokot
  */
 public class JHCRLoadRewriter extends MethodVisitor implements JHCRVariables
 {
+    private final String owner;
+
     /**
      * Constructs a new JHCRLoadRewriter.
      * 
      * @param mv
+     * @param owner
+     *            internal name of the class loader
      */
-    public JHCRLoadRewriter (AnalyzerAdapter mv)
+    public JHCRLoadRewriter (AnalyzerAdapter mv, String owner)
     {
         super(Opcodes.ASM9, mv);
+        this.owner = owner;
     }
 
     @Override
     public void visitCode ()
     {
         super.visitCode();
+
+        Label notFound = new Label();
+
+        // Nothing is stored before the constructor created the shard.
         mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitFieldInsn(Opcodes.GETFIELD, this.owner, SHARD_FIELD_NAME, SHARD_DESC);
+        mv.visitInsn(Opcodes.DUP);
+        mv.visitJumpInsn(Opcodes.IFNULL, notFound);
+
         mv.visitVarInsn(Opcodes.ALOAD, 1);
-        mv.visitMethodInsn(Opcodes.INVOKESTATIC, CUSTOM_REPO_NAME, CUSTOM_REPO_GET_NAME, CUSTOM_REPO_GET_DESC, false);
+        mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, SHARD_NAME, SHARD_GET_NAME, SHARD_GET_DESC, false);
         mv.visitInsn(Opcodes.DUP);
+        mv.visitJumpInsn(Opcodes.IFNULL, notFound);
 
-        Label ifNull = new Label();
-        mv.visitJumpInsn(Opcodes.IFNULL, ifNull);
+        mv.visitTypeInsn(Opcodes.CHECKCAST, CLASS_NAME);
+        mv.visitInsn(Opcodes.ICONST_1);
+        mv.visitMethodInsn(Opcodes.INVOKESTATIC, METRICS_NAME, METRICS_CUSTOM_LOOKUP_NAME, METRICS_CUSTOM_LOOKUP_DESC, false);
         mv.visitInsn(Opcodes.ARETURN);
 
-        mv.visitLabel(ifNull);
+        mv.visitLabel(notFound);
         mv.visitInsn(Opcodes.POP);
+        mv.visitInsn(Opcodes.ICONST_0);
+        mv.visitMethodInsn(Opcodes.INVOKESTATIC, METRICS_NAME, METRICS_CUSTOM_LOOKUP_NAME, METRICS_CUSTOM_LOOKUP_DESC, false);
     }
 
     @Override
@@ -60,9 +82,9 @@ public class JHCRLoadRewriter extends MethodVisitor implements JHCRVariables
         if (opcode == Opcodes.ARETURN)
         {
             mv.visitInsn(Opcodes.DUP);
+            mv.visitVarInsn(Opcodes.ALOAD, 0);
             mv.visitVarInsn(Opcodes.ALOAD, 1);
-            mv.visitInsn(Opcodes.SWAP);
-            mv.visitMethodInsn(Opcodes.INVOKESTATIC, CUSTOM_REPO_NAME, CUSTOM_REPO_PUT_NAME, CUSTOM_REPO_PUT_DESC, false);
+            mv.visitMethodInsn(Opcodes.INVOKESTATIC, CUSTOM_REPO_NAME, CUSTOM_REPO_RECORD_NAME, CUSTOM_REPO_RECORD_DESC, false);
         }
 
         super.visitInsn(opcode);
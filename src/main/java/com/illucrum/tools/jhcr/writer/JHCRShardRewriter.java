@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2025, Illucrum LLC
+ *
+ * This file is part of JHCR.
+ *
+ * JHCR is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * JHCR is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with JHCR. If not, see <https://www.gnu.org/licenses/gpl-3.0.html>.
+ */
+package com.illucrum.tools.jhcr.writer;
+
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.commons.AdviceAdapter;
+
+import com.illucrum.tools.jhcr.vars.JHCRVariables;
+
+/**
+ * Method visitor responsible for initializing the repository shard field in the constructors of custom class loaders.
+ * 
+ * <p>
+ * The shard is created right after the super constructor call, unless a constructor called through <code>this(...)</code> already created it.
+ * </p>
+ * 
+ * @see com.illucrum.tools.jhcr.repo.JHCRCustomRepository
+ * 
+ * @author Szymon Kokot
+ */
+public class JHCRShardRewriter extends AdviceAdapter implements JHCRVariables
+{
+    private final String owner;
+
+    /**
+     * Constructs a new JHCRShardRewriter.
+     * 
+     * @param mv
+     * @param access
+     *            access flags of the constructor
+     * @param desc
+     *            descriptor of the constructor
+     * @param owner
+     *            internal name of the class loader
+     */
+    public JHCRShardRewriter (MethodVisitor mv, int access, String desc, String owner)
+    {
+        super(API, mv, access, INIT_NAME, desc);
+        this.owner = owner;
+    }
+
+    @Override
+    protected void onMethodEnter ()
+    {
+        Label initialized = new Label();
+
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitFieldInsn(Opcodes.GETFIELD, this.owner, SHARD_FIELD_NAME, SHARD_DESC);
+        mv.visitJumpInsn(Opcodes.IFNONNULL, initialized);
+
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitTypeInsn(Opcodes.NEW, SHARD_NAME);
+        mv.visitInsn(Opcodes.DUP);
+        mv.visitMethodInsn(Opcodes.INVOKESPECIAL, SHARD_NAME, INIT_NAME, VOID_DESC, false);
+        mv.visitFieldInsn(Opcodes.PUTFIELD, this.owner, SHARD_FIELD_NAME, SHARD_DESC);
+
+        mv.visitLabel(initialized);
+    }
+}
@@ -0,0 +1,296 @@
+/*
+ * Copyright (C) 2025, Illucrum LLC
+ *
+ * This file is part of JHCR.
+ *
+ * JHCR is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * JHCR is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with JHCR. If not, see <https://www.gnu.org/licenses/gpl-3.0.html>.
+ */
+package com.illucrum.tools.jhcr.writer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+import com.illucrum.tools.jhcr.JHCRAgent;
+import com.illucrum.tools.jhcr.loader.JHCRClassLoader;
+import com.illucrum.tools.jhcr.logger.JHCRLogger;
+
+/**
+ * Decides which types can be reloaded, and so which constructor calls are worth rewriting.
+ * 
+ * <p>
+ * The <code>jhcr.rewrite.include</code> and <code>jhcr.rewrite.exclude</code> preferences take comma separated binary class names. A name ending with
+ * <code>*</code> matches every class starting with it, so <code>com.example.*</code> matches the whole package and its subpackages. Excludes win over
+ * includes, and JDK and JHCR classes are always excluded.
+ * </p>
+ * 
+ * <p>
+ * Without includes, a type is rewritten when its package exists in one of the directories of the {@link com.illucrum.tools.jhcr.loader.JHCRURLClassLoader}
+ * class path that are inside <code>jhcr.projectDirectory</code>, or in any class path directory if none is. Classes from jars can't be overridden, so they
+ * keep their plain <code>new</code>. If the class path has no directories at all, every type that is not excluded is rewritten.
+ * </p>
+ * 
+ * <p>
+ * Decisions are cached. Rejected types are decided again once a class file is created, see {@link #clearRejected()}.
+ * </p>
+ * 
+ * @author Szymon Kokot
+ */
+public class JHCRTypeFilter
+{
+    private static final String[] BUILT_IN_EXCLUDES = {
+            "java/*",
+            "javax/*",
+            "jdk/*",
+            "sun/*",
+            "com/sun/*",
+            "com/illucrum/tools/jhcr/*",
+            "org/objectweb/asm/*",
+            "org/apache/commons/io/*" };
+
+    private static final ConcurrentHashMap<String, Boolean> decisions = new ConcurrentHashMap<>();
+    private static volatile String[] includes;
+    private static volatile String[] excludes;
+    private static volatile File[] roots;
+
+    /**
+     * Checks if the constructor calls of the given type should be rewritten.
+     * 
+     * @param internalName
+     *            the internal name of the type
+     * @return true if the type may be reloaded
+     */
+    public static boolean isRewritable (String internalName)
+    {
+        Boolean decision = decisions.get(internalName);
+
+        if (decision == null)
+        {
+            decision = decide(internalName);
+            decisions.put(internalName, decision);
+            JHCRLogger.finer("Rewriting " + internalName + ": " + decision);
+        }
+
+        return decision;
+    }
+
+    /**
+     * Forgets the types that weren't rewritable. Their package directory may have been created since, so they are decided again on their next use.
+     */
+    public static void clearRejected ()
+    {
+        decisions.values().removeIf(decision -> !decision);
+    }
+
+    /**
+     * Returns a string describing the effective filter, which changes whenever the filter would take different decisions.
+     * 
+     * <p>
+     * Without includes, decisions depend on the package directories found in the class path directories, so they are listed as well.
+     * </p>
+     * 
+     * @return the includes, excludes, class path directories and package directories in use
+     */
+    public static String getConfiguration ()
+    {
+        if (includes == null)
+        {
+            init();
+        }
+
+        String configuration = "include=" + Arrays.toString(includes) + ";exclude=" + Arrays.toString(excludes) + ";roots=" + Arrays.toString(roots);
+
+        if (includes.length == 0 && roots.length > 0)
+        {
+            configuration += ";packages=" + getPackages();
+        }
+
+        return configuration;
+    }
+
+    private static Set<String> getPackages ()
+    {
+        Set<String> packages = new TreeSet<>();
+
+        for (File root : roots)
+        {
+            Path rootPath = root.toPath();
+
+            try (Stream<Path> paths = Files.walk(rootPath))
+            {
+                paths.filter(Files::isDirectory).forEach(path -> packages.add(rootPath.relativize(path).toString()));
+            }
+            catch (IOException | UncheckedIOException e)
+            {
+                JHCRLogger.fine("Could not list the packages of " + root + ": " + e);
+            }
+        }
+
+        return packages;
+    }
+
+    private static boolean decide (String internalName)
+    {
+        if (includes == null)
+        {
+            init();
+        }
+
+        if (matches(internalName, BUILT_IN_EXCLUDES) || matches(internalName, excludes))
+        {
+            return false;
+        }
+
+        if (includes.length > 0)
+        {
+            return matches(internalName, includes);
+        }
+
+        if (roots.length == 0)
+        {
+            return true;
+        }
+
+        int index = internalName.lastIndexOf('/');
+        String packagePath = index == -1 ? "" : internalName.substring(0, index);
+
+        for (File root : roots)
+        {
+            if (new File(root, packagePath).isDirectory())
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static File toFile (URL url)
+    {
+        try
+        {
+            return new File(url.toURI());
+        }
+        catch (URISyntaxException | IllegalArgumentException e)
+        {
+            return new File(url.getPath());
+        }
+    }
+
+    private static boolean matches (String internalName, String[] patterns)
+    {
+        for (String pattern : patterns)
+        {
+            if (pattern.endsWith("*") ? internalName.startsWith(pattern.substring(0, pattern.length() - 1)) : internalName.equals(pattern))
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static synchronized void init ()
+    {
+        if (includes != null)
+        {
+            return;
+        }
+
+        excludes = parsePatterns(JHCRAgent.preferences.get("jhcr.rewrite.exclude"));
+        roots = findRoots();
+        includes = parsePatterns(JHCRAgent.preferences.get("jhcr.rewrite.include"));
+    }
+
+    private static String[] parsePatterns (String preference)
+    {
+        List<String> patterns = new ArrayList<>();
+
+        if (preference != null)
+        {
+            for (String pattern : preference.split(","))
+            {
+                pattern = pattern.trim();
+
+                if (pattern.length() > 0)
+                {
+                    patterns.add(pattern.replace('.', '/'));
+                }
+            }
+        }
+
+        return patterns.toArray(new String[patterns.size()]);
+    }
+
+    private static File[] findRoots ()
+    {
+        List<File> directories = new ArrayList<>();
+        List<File> projectDirectories = new ArrayList<>();
+        ClassLoader loader = ClassLoader.getSystemClassLoader();
+
+        if (!(loader instanceof JHCRClassLoader))
+        {
+            return new File[0];
+        }
+
+        String projectPath = JHCRAgent.preferences.getOrDefault("jhcr.projectDirectory", System.getProperty("user.dir"));
+        File project = new File(projectPath).getAbsoluteFile();
+
+        for (URL url : ((JHCRClassLoader) loader).getURLClassLoader().getURLs())
+        {
+            if (!"file".equals(url.getProtocol()))
+            {
+                continue;
+            }
+
+            File directory = toFile(url).getAbsoluteFile();
+
+            if (!directory.isDirectory())
+            {
+                continue;
+            }
+
+            directories.add(directory);
+
+            if (isInside(directory, project) || isInside(project, directory))
+            {
+                projectDirectories.add(directory);
+            }
+        }
+
+        List<File> result = projectDirectories.isEmpty() ? directories : projectDirectories;
+        JHCRLogger.fine("Reloadable class path directories: " + result);
+
+        return result.toArray(new File[result.size()]);
+    }
+
+    private static boolean isInside (File file, File directory)
+    {
+        for (File f = file; f != null; f = f.getParentFile())
+        {
+            if (f.equals(directory))
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2025, Illucrum LLC
+ *
+ * This file is part of JHCR.
+ *
+ * JHCR is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * JHCR is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with JHCR. If not, see <https://www.gnu.org/licenses/gpl-3.0.html>.
+ */
+package com.illucrum.tools.jhcr.loader;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.stream.Stream;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import com.illucrum.tools.jhcr.JHCRAgent;
+
+/**
+ * Measures how the startup class loading of a {@link com.illucrum.tools.jhcr.loader.JHCRURLClassLoader} scales with the number of loading threads.
+ * 
+ * <p>
+ * Every run generates a fresh directory of classes, indexes it, and loads and initializes all its classes from the given number of threads, each taking
+ * every n-th class. The median time of the runs is printed per thread count. It is not a unit test, run it after <code>mvn test-compile</code> with:
+ * </p>
+ * 
+ * <pre>
+ * java -cp target/classes:target/test-classes:&lt;dependencies&gt; com.illucrum.tools.jhcr.loader.JHCRParallelLoadingBenchmark [classes] [runs] [threads...]
+ * </pre>
+ * 
+ * @author Szymon Kokot
+ */
+public class JHCRParallelLoadingBenchmark
+{
+    private static int run = 0;
+
+    /**
+     * Runs the benchmark.
+     * 
+     * @param args
+     *            the number of classes (2000 by default), of runs per thread count (5), and the thread counts (1 2 4 8)
+     * @throws Exception
+     *             if the classes can't be written or loaded
+     */
+    public static void main (String[] args) throws Exception
+    {
+        int classes = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        int[] threadCounts = args.length > 2 ? Arrays.stream(args, 2, args.length).mapToInt(Integer::parseInt).toArray() : new int[] { 1, 2, 4, 8 };
+
+        JHCRAgent.preferences = new HashMap<>();
+        System.out.println(Runtime.getRuntime().availableProcessors() + " processors, " + classes + " classes, median of " + runs + " runs");
+
+        // Warms up the loader code itself, on every thread count.
+        for (int threads : threadCounts)
+        {
+            for (int i = 0; i < runs; i++)
+            {
+                measure(classes, threads);
+            }
+        }
+
+        for (int threads : threadCounts)
+        {
+            long[] times = new long[runs];
+
+            for (int i = 0; i < runs; i++)
+            {
+                times[i] = measure(classes, threads);
+            }
+
+            Arrays.sort(times);
+            System.out.println(threads + " threads: " + times[runs / 2] / 1000 + "us");
+        }
+    }
+
+    private static long measure (int classes, int threads) throws Exception
+    {
+        // Class names are unique per run, the repositories of JHCR are static.
+        String packageName = "bench/r" + run++;
+        Path directory = Files.createTempDirectory("jhcr-bench");
+
+        for (int i = 0; i < classes; i++)
+        {
+            Path file = directory.resolve(packageName + "/K" + i + ".class");
+            Files.createDirectories(file.getParent());
+            Files.write(file, generate(packageName + "/K" + i));
+        }
+
+        // Like the system class loader, the class path is appended, so it is indexed.
+        JHCRURLClassLoader loader = new JHCRURLClassLoader(new URL[0], JHCRParallelLoadingBenchmark.class.getClassLoader());
+        loader.appendToClassPath(directory.toAbsolutePath() + "/");
+        loader.buildIndex();
+
+        while (!loader.isIndexReady())
+        {
+            Thread.sleep(1);
+        }
+
+        String prefix = packageName.replace('/', '.') + ".K";
+        Thread[] workers = new Thread[threads];
+        Exception[] failure = new Exception[1];
+        long start = System.nanoTime();
+
+        for (int t = 0; t < threads; t++)
+        {
+            int first = t;
+            workers[t] = new Thread(() ->
+            {
+                try
+                {
+                    for (int i = first; i < classes; i += threads)
+                    {
+                        Class.forName(prefix + i, true, loader);
+                    }
+                }
+                catch (Exception e)
+                {
+                    failure[0] = e;
+                }
+            });
+            workers[t].start();
+        }
+
+        for (Thread worker : workers)
+        {
+            worker.join();
+        }
+
+        long time = System.nanoTime() - start;
+        loader.close();
+        delete(directory);
+
+        if (failure[0] != null)
+        {
+            throw failure[0];
+        }
+
+        return time;
+    }
+
+    /**
+     * Generates a class with a static initializer and a method, so loading it also links and initializes some code.
+     */
+    private static byte[] generate (String internalName)
+    {
+        ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_FRAMES);
+        writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, internalName, null, "java/lang/Object", null);
+        writer.visitField(Opcodes.ACC_STATIC, "value", "Ljava/lang/String;", null, null).visitEnd();
+
+        MethodVisitor init = writer.visitMethod(Opcodes.ACC_STATIC, "<clinit>", "()V", null, null);
+        init.visitCode();
+        init.visitLdcInsn(internalName);
+        init.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/lang/String", "toUpperCase", "()Ljava/lang/String;", false);
+        init.visitFieldInsn(Opcodes.PUTSTATIC, internalName, "value", "Ljava/lang/String;");
+        init.visitInsn(Opcodes.RETURN);
+        init.visitMaxs(0, 0);
+        init.visitEnd();
+
+        MethodVisitor method = writer.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "length", "()I", null, null);
+        method.visitCode();
+        method.visitFieldInsn(Opcodes.GETSTATIC, internalName, "value", "Ljava/lang/String;");
+        method.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/lang/String", "length", "()I", false);
+        method.visitInsn(Opcodes.IRETURN);
+        method.visitMaxs(0, 0);
+        method.visitEnd();
+
+        writer.visitEnd();
+
+        return writer.toByteArray();
+    }
+
+    private static void delete (Path directory) throws IOException
+    {
+        try (Stream<Path> paths = Files.walk(directory))
+        {
+            paths.sorted((a, b) -> b.compareTo(a)).forEach(path -> path.toFile().delete());
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2025, Illucrum LLC
+ *
+ * This file is part of JHCR.
+ *
+ * JHCR is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later version.
+ *
+ * JHCR is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with JHCR. If not, see <https://www.gnu.org/licenses/gpl-3.0.html>.
+ */
+package com.illucrum.tools.jhcr.writer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+/**
+ * Tests {@link com.illucrum.tools.jhcr.writer.JHCRClassShape#diff(JHCRClassShape)}.
+ * 
+ * @author Szymon Kokot
+ */
+public class JHCRClassShapeTest
+{
+    private static final int LAMBDA_ACCESS = Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC | Opcodes.ACC_SYNTHETIC;
+
+    @Test
+    public void lambdaAddedCanBeRedefined ()
+    {
+        JHCRClassShape older = shape(new String[] { "lambda$run$0" }, null);
+        JHCRClassShape newer = shape(new String[] { "lambda$run$0", "lambda$run$1" }, null);
+
+        assertNull(older.diff(newer, true));
+    }
+
+    @Test
+    public void lambdaAddedNeedsOverrideOnStrictJvm ()
+    {
+        JHCRClassShape older = shape(new String[] { "lambda$run$0" }, null);
+        JHCRClassShape newer = shape(new String[] { "lambda$run$0", "lambda$run$1" }, null);
+
+        assertEquals("method added: lambda$run$1()V", older.diff(newer, false));
+    }
+
+    @Test
+    public void lambdaRemovedCanBeRedefined ()
+    {
+        JHCRClassShape older = shape(new String[] { "lambda$run$0", "lambda$run$1" }, null);
+        JHCRClassShape newer = shape(new String[] { "lambda$run$0" }, null);
+
+        assertNull(older.diff(newer, true));
+    }
+
+    @Test
+    public void publicMethodAddedNeedsOverride ()
+    {
+        JHCRClassShape older = shape(new String[] { "lambda$run$0" }, null);
+        JHCRClassShape newer = shape(new String[] { "lambda$run$0" }, "added");
+
+        assertEquals("method added: added()V", older.diff(newer, true));
+    }
+
+    @Test
+    public void publicMethodRemovedNeedsOverride ()
+    {
+        JHCRClassShape older = shape(new String[0], "removed");
+        JHCRClassShape newer = shape(new String[0], null);
+
+        assertEquals("method removed: removed()V", older.diff(newer, true));
+    }
+
+    /**
+     * Builds a class with a public <code>run</code> method, the given lambda bodies, and an optional extra public method.
+     */
+    private static JHCRClassShape shape (String[] lambdas, String publicMethod)
+    {
+        ClassWriter writer = new ClassWriter(0);
+        writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, "test/Lambdas", null, "java/lang/Object", null);
+        method(writer, Opcodes.ACC_PUBLIC, "run");
+
+        for (String lambda : lambdas)
+        {
+            method(writer, LAMBDA_ACCESS, lambda);
+        }
+
+        if (publicMethod != null)
+        {
+            method(writer, Opcodes.ACC_PUBLIC, publicMethod);
+        }
+
+        writer.visitEnd();
+
+        return JHCRClassShape.of(new ClassReader(writer.toByteArray()));
+    }
+
+    private static void method (ClassWriter writer, int access, String name)
+    {
+        MethodVisitor method = writer.visitMethod(access, name, "()V", null, null);
+        method.visitCode();
+        method.visitInsn(Opcodes.RETURN);
+        method.visitMaxs(0, (access & Opcodes.ACC_STATIC) == 0 ? 1 : 0);
+        method.visitEnd();
+    }
+}